@@ -0,0 +1,71 @@
+package pl.caltha.osgi.benchmarks
+
+import java.util.concurrent.TimeUnit
+
+import scala.collection.JavaConversions.mapAsJavaMap
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+import spray.http.Uri.Path
+import spray.osgi.impl.BundleResourceIndex
+
+/**
+ * Cost of indexing the static resources of a bundle, and of resolving request paths using the
+ * index. Resources are spread across directories of a hundred files each, every directory has
+ * a welcome file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+class BundleResourceIndexBenchmark {
+
+  @Param(Array("1000", "10000"))
+  var resources: Int = _
+
+  private var bundle: InMemoryBundle = _
+
+  private var index: BundleResourceIndex = _
+
+  private val file = Path("/dir5/file512.js")
+
+  private val directory = Path("/dir5/")
+
+  private val missing = Path("/dir5/missing.js")
+
+  @Setup
+  def setup(): Unit = {
+    val contents = (0 until resources).map { n ⇒
+      val name = if (n % 100 == 0) "index.html" else s"file$n.js"
+      s"static/dir${n / 100}/$name" → Array[Byte]()
+    }.toMap
+    bundle = new InMemoryBundle(1, "benchmark.resources", contents)
+    index = BundleResourceIndex.directory(bundle, "static", Some("index.html"))
+    index.lookup(file)
+  }
+
+  /**
+   * Indexing the bundle, which happens on the first request for one of its resources.
+   */
+  @Benchmark
+  def build(): Option[String] =
+    BundleResourceIndex.directory(bundle, "static", Some("index.html")).lookup(file)
+
+  @Benchmark
+  def lookupFile(): Option[String] =
+    index.lookup(file)
+
+  @Benchmark
+  def lookupDirectory(): Option[String] =
+    index.lookup(directory)
+
+  @Benchmark
+  def lookupMissing(): Option[String] =
+    index.lookup(missing)
+}
@@ -0,0 +1,62 @@
+package pl.caltha.osgi.benchmarks
+
+import java.io.File
+
+import scala.collection.JavaConversions.asScalaIterator
+
+import com.fasterxml.jackson.databind.JsonNode
+import com.fasterxml.jackson.databind.ObjectMapper
+
+/**
+ * Compares two sets of JMH results, written with `-rf json`, printing the change of the score of
+ * each benchmark present in both.
+ *
+ * A change is flagged when it exceeds the sum of the score errors of both runs, and so it is
+ * unlikely to be noise. Whether a flagged change is an improvement or a regression depends on
+ * the benchmark mode: a higher score is better in throughput mode, worse in average time mode.
+ *
+ * Usage: `CompareResults <baseline.json> <current.json>`
+ */
+object CompareResults {
+
+  private case class Result(mode: String, score: Double, error: Double, unit: String)
+
+  def main(args: Array[String]): Unit = args match {
+    case Array(baselineFile, currentFile) ⇒
+      val baseline = read(new File(baselineFile))
+      val current = read(new File(currentFile))
+      println(f"${"Benchmark"}%-70s ${"Mode"}%-6s ${"Baseline"}%14s ${"Current"}%14s ${"Change"}%9s  Units")
+      current.keys.toSeq.sorted.foreach { key ⇒
+        val c = current(key)
+        baseline.get(key) match {
+          case Some(b) if b.mode == c.mode && b.unit == c.unit ⇒
+            val change = if (b.score == 0) 0.0 else (c.score - b.score) / b.score * 100
+            val flag = if (math.abs(c.score - b.score) > b.error + c.error) " *" else ""
+            println(f"$key%-70s ${c.mode}%-6s ${b.score}%14.3f ${c.score}%14.3f $change%+8.1f%%  ${c.unit}$flag")
+          case _ ⇒
+            println(f"$key%-70s ${c.mode}%-6s ${"-"}%14s ${c.score}%14.3f ${"-"}%9s  ${c.unit}")
+        }
+      }
+    case _ ⇒
+      System.err.println("usage: CompareResults <baseline.json> <current.json>")
+      sys.exit(1)
+  }
+
+  /** Reads the results, by benchmark name and parameter values. */
+  private def read(file: File): Map[String, Result] =
+    new ObjectMapper().readTree(file).elements.map { node ⇒
+      val metric = node.path("primaryMetric")
+      key(node) → Result(node.path("mode").asText, metric.path("score").asDouble,
+        errorOf(metric.path("scoreError")), metric.path("scoreUnit").asText)
+    }.toMap
+
+  private def key(node: JsonNode): String = {
+    val name = node.path("benchmark").asText.stripPrefix("pl.caltha.osgi.benchmarks.")
+    val params = node.path("params").fields.map(e ⇒ s"${e.getKey}=${e.getValue.asText}").toSeq.sorted
+    if (params.isEmpty) name else params.mkString(s"$name(", ",", ")")
+  }
+
+  /** The error is `NaN` when a benchmark was run with a single iteration. */
+  private def errorOf(node: JsonNode): Double =
+    if (node.isNumber) node.asDouble else 0.0
+}
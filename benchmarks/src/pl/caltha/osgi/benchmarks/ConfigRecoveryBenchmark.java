@@ -0,0 +1,71 @@
+package pl.caltha.osgi.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.osgi.ConfigRecovery;
+
+/**
+ * Recovery of {@code Config} objects from configuration properties, as done by
+ * every component activation, compared with the original implementation.
+ *
+ * <p>
+ * One in ten values uses a substitution. The {@code uncached} variant changes
+ * the properties before each recovery, so that the memoized results are never
+ * used.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConfigRecoveryBenchmark {
+
+	@Param({ "10", "100", "1000" })
+	public int values;
+
+	private Map<String, Object> properties;
+
+	private long nonce;
+
+	@Setup
+	public void setup() {
+		properties = new HashMap<>();
+		for (int i = 0; i < values; i++) {
+			String key = "section" + (i % 10) + ".group" + (i % 7) + ".value"
+					+ i;
+			if (i % 10 == 9) {
+				properties.put(key + ".expr", "${section0.group0.value0}");
+			} else {
+				properties.put(key, i);
+			}
+			properties.put(key + ".origin", "application.conf: " + (i + 1));
+		}
+	}
+
+	@Benchmark
+	public Config cached() {
+		return ConfigRecovery.fromProperties(properties);
+	}
+
+	@Benchmark
+	public Config uncached() {
+		properties.put("nonce", nonce++);
+		return ConfigRecovery.fromProperties(properties);
+	}
+
+	@Benchmark
+	public Config legacy() {
+		return LegacyConfigRecovery.fromProperties(properties);
+	}
+}
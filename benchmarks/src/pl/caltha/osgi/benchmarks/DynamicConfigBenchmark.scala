@@ -0,0 +1,113 @@
+package pl.caltha.osgi.benchmarks
+
+import java.util.concurrent.TimeUnit
+
+import scala.concurrent.Await
+import scala.concurrent.duration.DurationInt
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OperationsPerInvocation
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+
+import com.typesafe.config.ConfigFactory
+
+import akka.actor.Actor
+import akka.actor.ActorRef
+import akka.actor.ActorSystem
+import akka.actor.Props
+import akka.osgi.ds.impl.ActorFacade
+import akka.osgi.ds.impl.DynamicConfig
+import akka.pattern.ask
+import akka.util.Timeout
+
+/**
+ * Overhead of configuration switching: running code with the configuration of a bundle, and the
+ * message throughput of an actor wrapped in an `ActorFacade` compared to a plain actor.
+ *
+ * Outside of an OSGi framework classes are not loaded from bundles, so the default
+ * configuration is used throughout.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+class DynamicConfigBenchmark {
+  import DynamicConfigBenchmark._
+
+  private val dynamicConfig = new DynamicConfig(ConfigFactory.load())
+
+  private val bundleConfig = dynamicConfig.bundleConfig(classOf[Counter])
+
+  private var system: ActorSystem = _
+
+  private var plain: ActorRef = _
+
+  private var facade: ActorRef = _
+
+  private implicit val timeout = Timeout(5.seconds)
+
+  @Setup
+  def setup(): Unit = {
+    system = ActorSystem("benchmark")
+    plain = system.actorOf(Props[Counter])
+    facade = system.actorOf(Props(classOf[ActorFacade], Props[Counter], dynamicConfig))
+  }
+
+  @TearDown
+  def tearDown(): Unit =
+    system.shutdown()
+
+  /** Resolving the bundle of the class on each call. */
+  @Benchmark
+  def runClass(): Int =
+    dynamicConfig.run(classOf[Counter])(1)
+
+  /** Using the configuration holder resolved beforehand. */
+  @Benchmark
+  def runBundleConfig(): Int =
+    dynamicConfig.run(bundleConfig)(1)
+
+  @Benchmark
+  @OperationsPerInvocation(Messages)
+  def plainActor(): Any =
+    send(plain)
+
+  @Benchmark
+  @OperationsPerInvocation(Messages)
+  def facadeActor(): Any =
+    send(facade)
+
+  /** Sends a batch of messages, and waits until the actor processed all of them. */
+  private def send(actor: ActorRef): Any = {
+    var i = 0
+    while (i < Messages) {
+      actor ! Increment
+      i += 1
+    }
+    Await.result(actor ? Get, timeout.duration)
+  }
+}
+
+object DynamicConfigBenchmark {
+
+  final val Messages = 1000
+
+  case object Increment
+
+  case object Get
+
+  class Counter extends Actor {
+
+    private var count = 0L
+
+    def receive = {
+      case Increment ⇒ count += 1
+      case Get ⇒ sender() ! count
+    }
+  }
+}
@@ -0,0 +1,281 @@
+package pl.caltha.osgi.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.Version;
+
+/**
+ * A bundle stub serving entries held in memory, so that the code reading
+ * bundle contents can be benchmarked without an OSGi framework.
+ *
+ * <p>
+ * Only the methods reading entries and the bundle's identity are implemented,
+ * the others throw {@code UnsupportedOperationException}. Directory entries are
+ * reported by {@link #findEntries(String, String, boolean)} like in a real
+ * framework.
+ * </p>
+ */
+public class InMemoryBundle implements Bundle {
+
+	private final long id;
+
+	private final String symbolicName;
+
+	private final long lastModified;
+
+	/** Contents of the entries by name, directories have names ending with /. */
+	private final TreeMap<String, byte[]> entries = new TreeMap<>();
+
+	private final URLStreamHandler handler = new URLStreamHandler() {
+		@Override
+		protected URLConnection openConnection(URL u) {
+			return new URLConnection(u) {
+				private final byte[] content = entries.get(u.getPath()
+						.substring(1));
+
+				@Override
+				public void connect() {
+				}
+
+				@Override
+				public InputStream getInputStream() {
+					return new ByteArrayInputStream(content);
+				}
+
+				@Override
+				public int getContentLength() {
+					return content.length;
+				}
+
+				@Override
+				public long getContentLengthLong() {
+					return content.length;
+				}
+
+				@Override
+				public long getLastModified() {
+					return lastModified;
+				}
+			};
+		}
+	};
+
+	/**
+	 * @param id
+	 *            bundle id.
+	 * @param symbolicName
+	 *            bundle symbolic name.
+	 * @param contents
+	 *            contents of the entries, by entry name without leading slash.
+	 */
+	public InMemoryBundle(long id, String symbolicName,
+			Map<String, byte[]> contents) {
+		this.id = id;
+		this.symbolicName = symbolicName;
+		this.lastModified = System.currentTimeMillis();
+		for (Map.Entry<String, byte[]> e : contents.entrySet()) {
+			String name = e.getKey();
+			entries.put(name, e.getValue());
+			for (int i = name.indexOf('/'); i >= 0; i = name.indexOf('/',
+					i + 1)) {
+				entries.put(name.substring(0, i + 1), new byte[0]);
+			}
+		}
+	}
+
+	@Override
+	public URL getEntry(String path) {
+		String name = path.startsWith("/") ? path.substring(1) : path;
+		return entries.containsKey(name) ? url(name) : null;
+	}
+
+	@Override
+	public Enumeration<URL> findEntries(String path, String filePattern,
+			boolean recurse) {
+		String dir = path.replaceAll("^/+|/+$", "");
+		String prefix = dir.isEmpty() ? "" : dir + "/";
+		Pattern pattern = Pattern.compile(filePattern.replace(".", "\\.")
+				.replace("*", ".*"));
+		List<URL> found = new ArrayList<>();
+		for (String name : entries.tailMap(prefix).keySet()) {
+			if (!name.startsWith(prefix)) {
+				break;
+			}
+			String relative = name.substring(prefix.length());
+			if (relative.isEmpty()) {
+				continue;
+			}
+			String trimmed = relative.endsWith("/") ? relative.substring(0,
+					relative.length() - 1) : relative;
+			int slash = trimmed.lastIndexOf('/');
+			if ((recurse || slash < 0)
+					&& pattern.matcher(trimmed.substring(slash + 1)).matches()) {
+				found.add(url(name));
+			}
+		}
+		return found.isEmpty() ? null : Collections.enumeration(found);
+	}
+
+	private URL url(String name) {
+		try {
+			return new URL("bundle", Long.toString(id), -1, "/" + name,
+					handler);
+		} catch (MalformedURLException e) {
+			throw new IllegalArgumentException(name, e);
+		}
+	}
+
+	@Override
+	public long getBundleId() {
+		return id;
+	}
+
+	@Override
+	public String getSymbolicName() {
+		return symbolicName;
+	}
+
+	@Override
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	@Override
+	public String getLocation() {
+		return "memory:" + symbolicName;
+	}
+
+	@Override
+	public int getState() {
+		return ACTIVE;
+	}
+
+	@Override
+	public Version getVersion() {
+		return Version.emptyVersion;
+	}
+
+	@Override
+	public int compareTo(Bundle o) {
+		return Long.compare(id, o.getBundleId());
+	}
+
+	@Override
+	public void start(int options) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void start() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void stop(int options) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void stop() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void update(InputStream input) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void update() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void uninstall() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Dictionary<String, String> getHeaders() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public ServiceReference<?>[] getRegisteredServices() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public ServiceReference<?>[] getServicesInUse() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean hasPermission(Object permission) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public URL getResource(String name) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Dictionary<String, String> getHeaders(String locale) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Class<?> loadClass(String name) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Enumeration<URL> getResources(String name) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Enumeration<String> getEntryPaths(String path) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public BundleContext getBundleContext() {
+		return null;
+	}
+
+	@Override
+	public Map<X509Certificate, List<X509Certificate>> getSignerCertificates(
+			int signersType) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public <A> A adapt(Class<A> type) {
+		return null;
+	}
+
+	@Override
+	public File getDataFile(String filename) {
+		return null;
+	}
+}
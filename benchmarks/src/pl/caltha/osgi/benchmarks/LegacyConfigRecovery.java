@@ -0,0 +1,38 @@
+package pl.caltha.osgi.benchmarks;
+
+import java.util.Map;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+
+/**
+ * The original implementation of
+ * {@code com.typesafe.config.osgi.ConfigRecovery.fromProperties(Map)}, merging
+ * the values one by one into the result, kept as a baseline for
+ * {@link ConfigRecoveryBenchmark}.
+ */
+public class LegacyConfigRecovery {
+
+	public static Config fromProperties(Map<String, ?> properties) {
+		Config config = ConfigFactory.empty();
+		for (Map.Entry<String, ?> entry : properties.entrySet()) {
+			String key = entry.getKey();
+			if (key.endsWith(".origin")) {
+				String originDesc = (String) entry.getValue();
+				String valueKey = key.replaceAll("\\.origin$", "");
+				Object value = properties.get(valueKey);
+				if (value != null) {
+					config = config.withValue(valueKey,
+							ConfigValueFactory.fromAnyRef(value, originDesc));
+				} else {
+					String s = valueKey + "="
+							+ properties.get(valueKey + ".expr");
+					Config c = ConfigFactory.parseString(s);
+					config = c.withFallback(config);
+				}
+			}
+		}
+		return config;
+	}
+}
@@ -0,0 +1,100 @@
+package pl.caltha.osgi.benchmarks;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogListener;
+import org.osgi.service.log.LogService;
+
+import pl.caltha.osgi.log.console.LogBuffer;
+
+/**
+ * Cost of logging through the console log agent's buffer for threads logging
+ * concurrently. The consumer discards the entries, so the buffer drops entries
+ * only when the logging threads outpace the worker thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class LogBufferBenchmark {
+
+	@Param({ "100", "10000" })
+	public int capacity;
+
+	private LogBuffer buffer;
+
+	private LogListener listener;
+
+	@Setup
+	public void setup() {
+		buffer = new LogBuffer(capacity, LogService.LOG_INFO,
+				(entries, dropped) -> {
+				});
+		listener = buffer.logListener();
+		buffer.start(Collections.emptyEnumeration());
+	}
+
+	@TearDown
+	public void tearDown() {
+		buffer.stop();
+	}
+
+	@Benchmark
+	public void log() {
+		listener.logged(new Entry(System.nanoTime()));
+	}
+
+	private static final class Entry implements LogEntry {
+
+		private final long time;
+
+		Entry(long time) {
+			this.time = time;
+		}
+
+		@Override
+		public Bundle getBundle() {
+			return null;
+		}
+
+		@Override
+		@SuppressWarnings("rawtypes")
+		public ServiceReference getServiceReference() {
+			return null;
+		}
+
+		@Override
+		public int getLevel() {
+			return LogService.LOG_INFO;
+		}
+
+		@Override
+		public String getMessage() {
+			return "benchmark";
+		}
+
+		@Override
+		public Throwable getException() {
+			return null;
+		}
+
+		@Override
+		public long getTime() {
+			return time;
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package pl.caltha.osgi.benchmarks
+
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+
+import akka.actor.Actor
+import akka.actor.ActorRef
+import akka.actor.ActorSystem
+import akka.actor.Props
+import spray.http.HttpRequest
+import spray.http.Uri
+import spray.http.Uri.Path
+import spray.osgi.impl.RouteIndex
+import spray.routing.Directives._
+import spray.routing.RequestContext
+import spray.routing.Route
+
+/**
+ * Cost of dispatching a request to one of many registered routes, using the dispatch index of
+ * `RouteManagerActor` and, for comparison, a concatenation of all routes tried in turn.
+ *
+ * Each route handles the requests under its own prefix. The `first` and `last` variants dispatch
+ * a request to the first and the last registered route, `missing` one that no route handles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+class RouteDispatchBenchmark {
+
+  @Param(Array("10", "100", "1000"))
+  var routes: Int = _
+
+  private var system: ActorSystem = _
+
+  private var responder: ActorRef = _
+
+  private var index: RouteIndex = _
+
+  private var linear: Route = _
+
+  private val extra: Route = path("extra") { complete("extra") }
+
+  @Setup
+  def setup(): Unit = {
+    system = ActorSystem("benchmark")
+    responder = system.actorOf(Props(new Actor { def receive = { case _ ⇒ } }))
+    val all = (0 until routes).map(n ⇒ n → path(s"bundle$n" / "hello") { complete("hello") })
+    index = all.foldLeft(RouteIndex.empty) {
+      case (i, (n, route)) ⇒ i.added(route, route, Seq(s"bundle$n"), 0)
+    }
+    linear = all.map(_._2).reduceRight(_ ~ _)
+    // build the prefix trie outside of the measurement
+    index.lookup(Path("/bundle0/hello"))
+  }
+
+  @TearDown
+  def tearDown(): Unit =
+    system.shutdown()
+
+  private def request(path: String): RequestContext =
+    RequestContext(HttpRequest(uri = Uri(path)), responder, Path(path))
+
+  @Benchmark
+  def indexFirst(): Unit =
+    index.route(request("/bundle0/hello"))
+
+  @Benchmark
+  def indexLast(): Unit =
+    index.route(request(s"/bundle${routes - 1}/hello"))
+
+  @Benchmark
+  def indexMissing(): Unit =
+    index.route(request("/missing"))
+
+  @Benchmark
+  def linearFirst(): Unit =
+    linear(request("/bundle0/hello"))
+
+  @Benchmark
+  def linearLast(): Unit =
+    linear(request(s"/bundle${routes - 1}/hello"))
+
+  @Benchmark
+  def linearMissing(): Unit =
+    linear(request("/missing"))
+
+  /**
+   * Registering a route and dispatching the first request, which builds the prefix trie anew.
+   */
+  @Benchmark
+  def rebuild(): Route =
+    index.added(extra, extra, Seq("extra"), 0).lookup(Path("/extra"))
+}
@@ -0,0 +1,72 @@
+package pl.caltha.osgi.benchmarks
+
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReference
+
+import scala.concurrent.Await
+import scala.concurrent.duration.DurationInt
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.annotations.Threads
+
+import akka.actor.ActorRef
+import akka.actor.ActorSystem
+import akka.pattern.ask
+import akka.routing.RoundRobinPool
+import akka.util.Timeout
+import spray.http.HttpRequest
+import spray.http.Uri
+import spray.osgi.impl.RouteHandlerActor
+import spray.osgi.impl.RouteIndex
+import spray.osgi.impl.RouteMetricsRegistry
+import spray.routing.Directives._
+
+/**
+ * Request throughput of a pool of `RouteHandlerActor`s sharing a dispatch index, for a varying
+ * number of handlers. Requests are sent by several client threads concurrently, each waiting for
+ * the response before sending the next request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(8)
+class RoutingThroughputBenchmark {
+
+  @Param(Array("1", "4", "16"))
+  var handlers: Int = _
+
+  private var system: ActorSystem = _
+
+  private var pool: ActorRef = _
+
+  private implicit val timeout = Timeout(5.seconds)
+
+  private val hello = HttpRequest(uri = Uri("/bundle5/hello"))
+
+  @Setup
+  def setup(): Unit = {
+    system = ActorSystem("benchmark")
+    val index = (0 until 10).foldLeft(RouteIndex.empty) { (i, n) ⇒
+      val route = path(s"bundle$n" / "hello") { complete("hello") }
+      i.added(route, route, Seq(s"bundle$n"), 0)
+    }
+    pool = system.actorOf(RoundRobinPool(handlers).props(
+      RouteHandlerActor.props(new AtomicReference(index), new RouteMetricsRegistry(RouteMetricsRegistry.Settings(false, None)), false)))
+  }
+
+  @TearDown
+  def tearDown(): Unit =
+    system.shutdown()
+
+  @Benchmark
+  def request(): Any =
+    Await.result(pool ? hello, timeout.duration)
+}
@@ -0,0 +1,76 @@
+package pl.caltha.osgi.benchmarks
+
+import java.util.concurrent.TimeUnit
+
+import scala.collection.JavaConversions.mapAsJavaMap
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+import io.spray.osgi.webjars.Webjar
+
+/**
+ * Cost of reading webjar metadata from the POM of a webjar bundle, including the adjustment of
+ * its RequireJS configuration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+class WebjarBenchmark {
+
+  private var bundle: InMemoryBundle = _
+
+  private val dependencies = (0 until 20).map { n ⇒
+    s"""    <dependency>
+       |      <groupId>org.webjars</groupId>
+       |      <artifactId>dependency$n</artifactId>
+       |      <version>1.0.$n</version>
+       |    </dependency>
+       |""".stripMargin
+  }.mkString
+
+  private val pom =
+    s"""<?xml version="1.0" encoding="UTF-8"?>
+       |<project xmlns="http://maven.apache.org/POM/4.0.0">
+       |  <modelVersion>4.0.0</modelVersion>
+       |  <parent>
+       |    <groupId>org.sonatype.oss</groupId>
+       |    <artifactId>oss-parent</artifactId>
+       |    <version>7</version>
+       |  </parent>
+       |  <groupId>org.webjars</groupId>
+       |  <artifactId>benchmark</artifactId>
+       |  <version>1.2.3</version>
+       |  <name>Benchmark</name>
+       |  <description>WebJar for benchmarking</description>
+       |  <properties>
+       |    <upstream.version>1.2.3</upstream.version>
+       |    <requirejs>
+       |      {
+       |        "paths": { "benchmark": "benchmark", "benchmark-extra": "extra/benchmark" },
+       |        "shim": { "benchmark-extra": [ "benchmark" ] }
+       |      }
+       |    </requirejs>
+       |  </properties>
+       |  <dependencies>
+       |$dependencies  </dependencies>
+       |</project>
+       |""".stripMargin
+
+  @Setup
+  def setup(): Unit = {
+    val contents = Map(
+      "META-INF/maven/org.webjars/benchmark/pom.xml" → pom.getBytes("UTF-8"),
+      "META-INF/resources/webjars/benchmark/1.2.3/benchmark.js" → Array[Byte]())
+    bundle = new InMemoryBundle(1, "org.webjars.benchmark", contents)
+  }
+
+  @Benchmark
+  def load(): Option[Webjar] =
+    Webjar.load(bundle)
+}
@@ -0,0 +1,39 @@
+package akka.osgi.ds
+
+/**
+ * An OSGi service reporting the load of the dispatchers assigned to client bundles of the shared
+ * `ActorSystem`.
+ *
+ * <p>When bundle dispatchers are enabled through `akka.osgi.ds.bundle-dispatchers.enabled` setting
+ * of the `com.typesafe.akka` configuration, actors created by each client bundle run on a
+ * dispatcher of their own, or on a dispatcher shared with selected other bundles, instead of the
+ * default dispatcher. This makes it possible to find the bundles that keep the threads busy, and
+ * to limit the threads available to them.</p>
+ */
+trait DispatcherStatistics {
+
+  /** Returns current statistics of all bundle dispatchers, by dispatcher id. */
+  def snapshot: Map[String, DispatcherStatistics.Stats]
+}
+
+object DispatcherStatistics {
+
+  /**
+   * Load statistics of a dispatcher. Thread pool figures are zero while the dispatcher is idle
+   * and its thread pool is shut down.
+   *
+   * @param bundles symbolic names of the bundles using the dispatcher.
+   * @param poolSize current number of threads.
+   * @param maxPoolSize maximum number of threads.
+   * @param activeThreads number of threads processing messages.
+   * @param queuedMailboxes number of actors with pending messages, waiting for a thread.
+   * @param completedTasks number of mailbox runs completed by the current thread pool.
+   */
+  case class Stats(
+    bundles: Set[String],
+    poolSize: Int,
+    maxPoolSize: Int,
+    activeThreads: Int,
+    queuedMailboxes: Int,
+    completedTasks: Long)
+}
@@ -0,0 +1,15 @@
+package akka.osgi.ds
+
+/**
+ * Marker trait for actors that do not need to see the configuration of their bundle.
+ *
+ * Actors created through the `ActorSystem` service are normally wrapped in a facade that switches
+ * `context.system.settings.config` to the configuration of the client bundle around `receive` and
+ * all lifecycle methods. Actors whose class extends this trait are created directly in the
+ * underlying `ActorSystem` instead, and process messages without any overhead. They see the
+ * configuration of the shared `ActorSystem`.
+ *
+ * Configuration switching can also be turned off for all actors of a bundle, by setting
+ * `akka.osgi.ds.config-switching = off` in the bundle's `application.conf`.
+ */
+trait NoConfigSwitching
@@ -20,6 +20,9 @@ import akka.actor.Props
  */
 class ActorFacade(props: Props, dynamicConfig: DynamicConfig) extends Actor {
 
+  /** Configuration of the bundle providing the actor, resolved once for all messages. */
+  private val bundleConfig = dynamicConfig.bundleConfig(props.clazz)
+
   /**
    * We need to implement our own behavior stack, because the stack in the `ActorCell`
    * of our enclosed `Actor` instance is inaccessible.
@@ -45,31 +48,31 @@ class ActorFacade(props: Props, dynamicConfig: DynamicConfig) extends Actor {
 
   /** Ensures that enclosed `Actor`'s `receive` is executed within `DynamicContext.run`. */
   override def aroundReceive(receive: Actor.Receive, msg: Any): Unit =
-    dynamicConfig.run(props.clazz) {
+    dynamicConfig.run(bundleConfig) {
       actor.aroundReceive(behaviorStack.head, msg)
     }
 
   /** Ensures that enclosed `Actor`'s `preStart` is executed within `DynamicContext.run`. */
   override def aroundPreStart() =
-    dynamicConfig.run(props.clazz) {
+    dynamicConfig.run(bundleConfig) {
       actor.aroundPreStart()
     }
 
   /** Ensures that enclosed `Actor`'s `postStop` is executed within `DynamicContext.run`. */
   override def aroundPostStop() =
-    dynamicConfig.run(props.clazz) {
+    dynamicConfig.run(bundleConfig) {
       actor.aroundPostStop()
     }
 
   /** Ensures that enclosed `Actor`'s `preRestart` is executed within `DynamicContext.run`. */
   override def aroundPreRestart(reason: Throwable, message: Option[Any]) =
-    dynamicConfig.run(props.clazz) {
+    dynamicConfig.run(bundleConfig) {
       actor.aroundPreRestart(reason, message)
     }
 
   /** Ensures that enclosed `Actor`'s `postRestart` is executed within `DynamicContext.run`. */
   override def aroundPostRestart(reason: Throwable) =
-    dynamicConfig.run(props.clazz) {
+    dynamicConfig.run(bundleConfig) {
       actor.aroundPostRestart(reason)
     }
 
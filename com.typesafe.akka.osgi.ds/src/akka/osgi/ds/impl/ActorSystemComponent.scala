@@ -25,6 +25,7 @@ import com.typesafe.config.osgi.ConfigRecovery
 
 import akka.actor.ActorSystem
 import akka.osgi.BundleDelegatingClassLoader
+import akka.osgi.ds.DispatcherStatistics
 
 /**
  * A Declarative Services component that provides [[ActorSystemServiceFactory]] with
@@ -46,6 +47,9 @@ class ActorSystemComponent {
   /** Registration object for the service factory*/
   var registration: Option[ServiceRegistration[_]] = None
 
+  /** Registration object for the dispatcher statistics service */
+  var statisticsRegistration: Option[ServiceRegistration[DispatcherStatistics]] = None
+
   /** OSGi LogService instance */
   var logService: Option[LogService] = None
 
@@ -79,9 +83,11 @@ class ActorSystemComponent {
    */
   @Activate
   def activate(ctx: BundleContext, properties: java.util.Map[String, _]): Unit = {
-    serviceFactory = Some(new ActorSystemServiceFactory(ConfigRecovery.fromProperties(properties)))
+    serviceFactory = Some(new ActorSystemServiceFactory(ctx, ConfigRecovery.fromProperties(properties)))
     serviceFactory.foreach(_.setLogSevice(logService))
     registration = serviceFactory.map(ctx.registerService(classOf[ActorSystem].getName(), _, null))
+    statisticsRegistration = serviceFactory.map(f ⇒
+      ctx.registerService(classOf[DispatcherStatistics], f.bundleDispatchers: DispatcherStatistics, null))
   }
 
   /**
@@ -92,6 +98,7 @@ class ActorSystemComponent {
    */
   @Deactivate
   def deactivate: Unit = {
+    statisticsRegistration.foreach(_.unregister())
     registration.foreach(_.unregister())
     serviceFactory.foreach(_.shutdown())
   }
@@ -11,6 +11,8 @@ import akka.actor.Extension
 import akka.actor.ExtensionId
 import akka.actor.ExtensionIdProvider
 import akka.actor.Props
+import akka.dispatch.Dispatchers
+import akka.osgi.ds.NoConfigSwitching
 
 /**
  * `ActorSystemFacade` companion object facilitates `ActorSystemFacade` initialization
@@ -48,9 +50,13 @@ object ActorSystemFacade {
      * @param dynamicConfig [[DynamicConfig]] that will be used for configuration switching.
      * @param context `BundleContext` of the client bundle.
      * @param settings Akka settings built according to client bundle's classpath.
+     * @param configSwitching whether actors of the client bundle are wrapped in [[ActorFacade]].
+     * @param bundleDispatcher id of the dispatcher for the actors of the client bundle, if not the default
+     * one.
      */
-    def apply(dynamicConfig: DynamicConfig, context: BundleContext, settings: ActorSystem.Settings) =
-      new ActorSystemFacade(system, dynamicConfig, context, settings)
+    def apply(dynamicConfig: DynamicConfig, context: BundleContext, settings: ActorSystem.Settings,
+      configSwitching: Boolean, bundleDispatcher: Option[String]) =
+      new ActorSystemFacade(system, dynamicConfig, context, settings, configSwitching, bundleDispatcher)
   }
 }
 
@@ -62,10 +68,17 @@ object ActorSystemFacade {
  * @param dynamicConfig [[DynamicConfig]] that will be used for configuration switching.
  * @param context `BundleContext` of the client bundle.
  * @param settings Akka settings built according to client bundle's classpath.
+ * @param configSwitching whether actors of the client bundle are wrapped in [[ActorFacade]].
+ * @param bundleDispatcher id of the dispatcher for the actors of the client bundle, used when their
+ * `Props` do not choose one.
  */
-class ActorSystemFacade(system: ExtendedActorSystem, dynamicConfig: DynamicConfig, context: BundleContext, val settings: ActorSystem.Settings)
+class ActorSystemFacade(system: ExtendedActorSystem, dynamicConfig: DynamicConfig, context: BundleContext,
+  val settings: ActorSystem.Settings, configSwitching: Boolean, bundleDispatcher: Option[String])
   extends ExtendedActorSystem {
 
+  /** Configuration of the client bundle. */
+  private val bundleConfig = dynamicConfig.bundleConfig(context.getBundle)
+
   // Members declared in akka.actor.ActorRefFactory that cannot be implemented by delegation
 
   def systemImpl: akka.actor.ActorSystemImpl =
@@ -88,23 +101,36 @@ class ActorSystemFacade(system: ExtendedActorSystem, dynamicConfig: DynamicConfi
   /**
    * `ActorSystemFacade` wraps each `Actor` created by the client bundle into
    * `ActorFacade` to ensure that appropriate configuration is accessible during execution of
-   * message processing and lifecycle methods of the actor.
+   * message processing and lifecycle methods of the actor, unless configuration switching is
+   * turned off for the actor or the bundle.
    */
   def actorOf(props: akka.actor.Props): akka.actor.ActorRef =
-    dynamicConfig.run(context) {
-      system.actorOf(Props(classOf[ActorFacade], props, dynamicConfig))
+    dynamicConfig.run(bundleConfig) {
+      system.actorOf(facadeProps(props))
     }
 
   /**
    * `ActorSystemFacade` wraps each `Actor` created by the client bundle into
    * `ActorFacade` to ensure that appropriate configuration is accessible during execution of
-   * message processing and lifecycle methods of the actor.
+   * message processing and lifecycle methods of the actor, unless configuration switching is
+   * turned off for the actor or the bundle.
    */
   def actorOf(props: Props, name: String): akka.actor.ActorRef =
-    dynamicConfig.run(context) {
-      system.actorOf(Props(classOf[ActorFacade], props, dynamicConfig), name)
+    dynamicConfig.run(bundleConfig) {
+      system.actorOf(facadeProps(props), name)
     }
 
+  private def facadeProps(props: Props): Props = {
+    val actorProps =
+      if (props.dispatcher == Dispatchers.DefaultDispatcherId) bundleDispatcher.fold(props)(props.withDispatcher)
+      else props
+    if (configSwitching && !classOf[NoConfigSwitching].isAssignableFrom(props.actorClass()))
+      // the facade takes over deployment settings, such as the dispatcher, of the wrapped actor
+      Props(classOf[ActorFacade], actorProps, dynamicConfig).withDeploy(actorProps.deploy)
+    else
+      actorProps
+  }
+
   def stop(actor: akka.actor.ActorRef): Unit =
     system.stop(actor)
 
@@ -147,7 +173,7 @@ class ActorSystemFacade(system: ExtendedActorSystem, dynamicConfig: DynamicConfi
    */
   def registerOnTermination[T](code: ⇒ T): Unit =
     system.registerOnTermination {
-      dynamicConfig.run(context)(code)
+      dynamicConfig.run(bundleConfig)(code)
     }
 
   /**
@@ -155,7 +181,7 @@ class ActorSystemFacade(system: ExtendedActorSystem, dynamicConfig: DynamicConfi
    */
   def registerOnTermination(code: Runnable): Unit =
     system.registerOnTermination {
-      dynamicConfig.run(context)(code)
+      dynamicConfig.run(bundleConfig)(code)
     }
 
   def awaitTermination(timeout: scala.concurrent.duration.Duration): Unit =
@@ -174,7 +200,7 @@ class ActorSystemFacade(system: ExtendedActorSystem, dynamicConfig: DynamicConfi
    * `ActorSystemFacade` wraps extension initialization in [[DynamicConfig.run]] 
    */
   def registerExtension[T <: akka.actor.Extension](ext: akka.actor.ExtensionId[T]): T =
-    dynamicConfig.run(context) {
+    dynamicConfig.run(bundleConfig) {
       system.registerExtension(ext)
     }
 
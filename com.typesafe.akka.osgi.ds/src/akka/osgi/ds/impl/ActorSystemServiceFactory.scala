@@ -5,15 +5,17 @@ import java.util.Properties
 
 import org.osgi.framework.Bundle
 import org.osgi.framework.BundleContext
+import org.osgi.framework.BundleEvent
 import org.osgi.framework.ServiceFactory
 import org.osgi.framework.ServiceRegistration
+import org.osgi.framework.SynchronousBundleListener
 import org.osgi.service.log.LogService
 
 import com.typesafe.config.Config
 import com.typesafe.config.ConfigFactory
 
 import akka.actor.ActorSystem
-import akka.osgi.BundleDelegatingClassLoader
+import akka.actor.ExtendedActorSystem
 import akka.osgi.UnregisteringLogService
 
 /**
@@ -22,10 +24,13 @@ import akka.osgi.UnregisteringLogService
  *
  * `ServiceFactory` facility is described in chapter 5.6 of OSGi Core specification.
  *
+ * @param ctx `BundleContext` of the `com.typesafe.akka.osgi.ds` bundle.
  * @param config user-customized configuration of Akka, used as an override over default
  * configuration loaded from classpath.
  */
-class ActorSystemServiceFactory(config: Config) extends ServiceFactory[ActorSystem] {
+class ActorSystemServiceFactory(ctx: BundleContext, config: Config) extends ServiceFactory[ActorSystem] {
+  import ActorSystemServiceFactory._
+  import BundleSettingsCache.BundleSettings
 
   /** The `ClassLoader` of `akka-actor` bundle. */
   private val akkaClassLoader = classOf[ActorSystem].getClassLoader()
@@ -53,6 +58,22 @@ class ActorSystemServiceFactory(config: Config) extends ServiceFactory[ActorSyst
     Some(akkaClassLoader),
     None)
 
+  /** Dispatchers of the client bundles. */
+  val bundleDispatchers = new BundleDispatchers(actorSystem.asInstanceOf[ExtendedActorSystem], akkaConfig)
+
+  /** Configuration and settings of the client bundles. */
+  private val settingsCache = new BundleSettingsCache(ctx, actorSystemName)
+
+  /** Drops the configurations of the client bundles that are updated or uninstalled. */
+  private val bundleListener = new SynchronousBundleListener {
+    def bundleChanged(event: BundleEvent): Unit = event.getType match {
+      case BundleEvent.UPDATED | BundleEvent.UNINSTALLED ⇒ dynamicConfig.forget(event.getBundle)
+      case _ ⇒
+    }
+  }
+
+  ctx.addBundleListener(bundleListener)
+
   /**
    * Service registration tokens for all service instances that where handed out to requester
    * bundles.
@@ -71,11 +92,11 @@ class ActorSystemServiceFactory(config: Config) extends ServiceFactory[ActorSyst
    */
   def getService(bundle: Bundle, registration: ServiceRegistration[ActorSystem]): ActorSystem = {
     val bundleContext = bundle.getBundleContext
-    val bundleClassLoader = BundleDelegatingClassLoader(bundleContext, None)
-    val bundleConfig = ConfigFactory.load(bundleClassLoader)
-    dynamicConfig.add(bundleContext, bundleConfig)
-    val bundleSettings = new ActorSystem.Settings(bundleClassLoader, bundleConfig, actorSystemName)
-    val service = ActorSystemFacade.Extension(actorSystem)(dynamicConfig, bundleContext, bundleSettings)
+    val BundleSettings(bundleConfig, bundleSettings) = settingsCache(bundle)
+    dynamicConfig.add(bundle, bundleConfig)
+    val configSwitching = !bundleConfig.hasPath(ConfigSwitching) || bundleConfig.getBoolean(ConfigSwitching)
+    val service = ActorSystemFacade.Extension(actorSystem)(dynamicConfig, bundleContext, bundleSettings,
+      configSwitching, bundleDispatchers.dispatcherFor(bundle))
     registrations += registration
     service
   }
@@ -88,7 +109,7 @@ class ActorSystemServiceFactory(config: Config) extends ServiceFactory[ActorSyst
    * @param actorSstem the service instance.
    */
   def ungetService(bundle: Bundle, registration: ServiceRegistration[ActorSystem], actorSystem: ActorSystem): Unit = {
-    dynamicConfig.remove(bundle.getBundleContext)
+    dynamicConfig.remove(bundle)
     registrations -= registration
   }
 
@@ -97,6 +118,8 @@ class ActorSystemServiceFactory(config: Config) extends ServiceFactory[ActorSyst
    */
   def shutdown(): Unit = {
     registrations foreach (_.unregister)
+    ctx.removeBundleListener(bundleListener)
+    settingsCache.close()
     actorSystem.shutdown()
     actorSystem.awaitTermination()
   }
@@ -112,4 +135,13 @@ class ActorSystemServiceFactory(config: Config) extends ServiceFactory[ActorSyst
     catch {
       case e: NoSuchElementException ⇒
     }
-}
\ No newline at end of file
+}
+
+object ActorSystemServiceFactory {
+
+  /**
+   * Client bundle configuration key, allowing the bundle to turn off configuration switching for
+   * all its actors. See [[akka.osgi.ds.NoConfigSwitching]].
+   */
+  val ConfigSwitching = "akka.osgi.ds.config-switching"
+}
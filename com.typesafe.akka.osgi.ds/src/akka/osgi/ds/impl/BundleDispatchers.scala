@@ -0,0 +1,155 @@
+package akka.osgi.ds.impl
+
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+import scala.concurrent.duration.Duration
+import scala.concurrent.duration.FiniteDuration
+
+import org.osgi.framework.Bundle
+
+import com.typesafe.config.Config
+import com.typesafe.config.ConfigFactory
+import com.typesafe.config.ConfigObject
+import com.typesafe.config.ConfigValueFactory
+import com.typesafe.config.ConfigValueType
+
+import akka.actor.ExtendedActorSystem
+import akka.dispatch.Dispatcher
+import akka.dispatch.DispatcherPrerequisites
+import akka.dispatch.ExecutorServiceFactory
+import akka.dispatch.ExecutorServiceFactoryProvider
+import akka.dispatch.MessageDispatcher
+import akka.dispatch.MessageDispatcherConfigurator
+import akka.dispatch.ThreadPoolExecutorConfigurator
+import akka.osgi.ds.DispatcherStatistics
+
+/**
+ * Assigns dispatchers to the client bundles of the shared `ActorSystem`.
+ *
+ * The dispatchers are configured by `akka.osgi.ds.bundle-dispatchers` section of the Akka
+ * configuration:
+ *
+ * {{{
+ * akka.osgi.ds.bundle-dispatchers {
+ *   # give each client bundle a dispatcher of its own
+ *   enabled = on
+ *   # settings of the bundle dispatchers, falling back to akka.actor.default-dispatcher
+ *   default {
+ *     thread-pool-executor.core-pool-size-max = 4
+ *   }
+ *   # per bundle settings, by bundle symbolic name: either a dispatcher configuration
+ *   # overriding the default one, or a path of a dispatcher configuration shared by the
+ *   # bundles referring to it
+ *   bundles {
+ *     "com.example.reports" { thread-pool-executor.core-pool-size-max = 1 }
+ *     "com.example.batch" = "batch-dispatcher"
+ *   }
+ * }
+ * }}}
+ *
+ * Bundle dispatchers always use a thread pool executor, so that their load can be reported.
+ * Dispatchers are registered with the `ActorSystem` when first needed, and are retained when the
+ * bundles go away, so that restarted bundles reuse them.
+ *
+ * @param system the shared `ActorSystem`.
+ * @param config Akka configuration.
+ */
+class BundleDispatchers(system: ExtendedActorSystem, config: Config) extends DispatcherStatistics {
+
+  private val settings =
+    if (config.hasPath("akka.osgi.ds.bundle-dispatchers")) config.getConfig("akka.osgi.ds.bundle-dispatchers")
+    else ConfigFactory.empty
+
+  private val enabled = settings.hasPath("enabled") && settings.getBoolean("enabled")
+
+  private val default =
+    if (settings.hasPath("default")) settings.getConfig("default") else ConfigFactory.empty
+
+  private val bundles: ConfigObject =
+    if (settings.hasPath("bundles")) settings.getObject("bundles") else ConfigFactory.empty.root
+
+  /** Registered dispatchers and the bundles using them, by dispatcher id. Guarded by `this`. */
+  private var dispatchers = Map[String, (MonitoredDispatcherConfigurator, Set[String])]()
+
+  /**
+   * Returns the id of the dispatcher for the actors of a bundle, registering the dispatcher if
+   * necessary, or `None` if bundle dispatchers are disabled.
+   *
+   * @param bundle the client bundle.
+   */
+  def dispatcherFor(bundle: Bundle): Option[String] =
+    if (enabled) Some(synchronized {
+      val name = bundle.getSymbolicName
+      val (id, dispatcherConfig) = Option(bundles.get(name)) match {
+        case Some(v) if v.valueType == ConfigValueType.STRING ⇒
+          val path = v.unwrapped.asInstanceOf[String]
+          (path, config.getConfig(path).withFallback(default))
+        case Some(v: ConfigObject) ⇒
+          (s"bundle-dispatcher-$name", v.toConfig.withFallback(default))
+        case _ ⇒
+          (s"bundle-dispatcher-$name", default)
+      }
+      val (configurator, users) = dispatchers.getOrElse(id, {
+        val configurator = new MonitoredDispatcherConfigurator(
+          dispatcherConfig.withValue("id", ConfigValueFactory.fromAnyRef(id))
+            .withFallback(system.dispatchers.defaultDispatcherConfig),
+          system.dispatchers.prerequisites)
+        system.dispatchers.registerConfigurator(id, configurator)
+        (configurator, Set.empty[String])
+      })
+      dispatchers += id → ((configurator, users + name))
+      id
+    })
+    else None
+
+  def snapshot: Map[String, DispatcherStatistics.Stats] = synchronized {
+    dispatchers.map {
+      case (id, (configurator, users)) ⇒
+        id → (configurator.executor match {
+          case Some(e) ⇒ DispatcherStatistics.Stats(users, e.getPoolSize, e.getMaximumPoolSize,
+            e.getActiveCount, e.getQueue.size, e.getCompletedTaskCount)
+          case None ⇒ DispatcherStatistics.Stats(users, 0, 0, 0, 0, 0)
+        })
+    }
+  }
+}
+
+/**
+ * A configurator of a `Dispatcher`, that keeps track of the dispatcher's current thread pool.
+ *
+ * @param config complete dispatcher configuration.
+ * @param prerequisites `ActorSystem` facilities required by the dispatcher.
+ */
+class MonitoredDispatcherConfigurator(config: Config, prerequisites: DispatcherPrerequisites)
+  extends MessageDispatcherConfigurator(config, prerequisites) {
+
+  /** The thread pool of the dispatcher, created anew after the dispatcher was idle. */
+  @volatile var executor: Option[ThreadPoolExecutor] = None
+
+  private val threadPool = new ThreadPoolExecutorConfigurator(config.getConfig("thread-pool-executor"), prerequisites)
+
+  private val executorProvider = new ExecutorServiceFactoryProvider {
+    def createExecutorServiceFactory(id: String, threadFactory: ThreadFactory): ExecutorServiceFactory = {
+      val factory = threadPool.createExecutorServiceFactory(id, threadFactory)
+      new ExecutorServiceFactory {
+        def createExecutorService = {
+          val service = factory.createExecutorService
+          executor = Some(service).collect { case e: ThreadPoolExecutor ⇒ e }
+          service
+        }
+      }
+    }
+  }
+
+  private val instance = new Dispatcher(
+    this,
+    config.getString("id"),
+    config.getInt("throughput"),
+    Duration(config.getDuration("throughput-deadline-time", TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS),
+    executorProvider,
+    FiniteDuration(config.getDuration("shutdown-timeout", TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS))
+
+  def dispatcher(): MessageDispatcher = instance
+}
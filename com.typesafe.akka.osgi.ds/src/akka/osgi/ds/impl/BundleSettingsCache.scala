@@ -0,0 +1,173 @@
+package akka.osgi.ds.impl
+
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+import scala.collection.JavaConversions.asScalaBuffer
+import scala.collection.concurrent.TrieMap
+import scala.concurrent.Await
+import scala.concurrent.Promise
+import scala.concurrent.duration.DurationInt
+import scala.util.Try
+
+import org.osgi.framework.Bundle
+import org.osgi.framework.BundleContext
+import org.osgi.framework.BundleEvent
+import org.osgi.framework.FrameworkUtil
+import org.osgi.framework.SynchronousBundleListener
+import org.osgi.framework.wiring.BundleWiring
+
+import com.typesafe.config.Config
+import com.typesafe.config.ConfigFactory
+
+import akka.actor.ActorSystem
+import akka.osgi.BundleDelegatingClassLoader
+
+/**
+ * Configuration and Akka settings of the client bundles, loaded from their classpath.
+ *
+ * Loading scans all `reference.conf` and `application.conf` resources visible to the bundle, so
+ * the results are cached by `BundleWiring`: the wiring is replaced when the bundle or any of the
+ * bundles it depends on is updated or refreshed, which invalidates the entry. Entries of bundles
+ * that get unresolved or uninstalled are dropped.
+ *
+ * The settings of bundles wired to `akka-actor` are loaded on a small pool of background threads
+ * as soon as the bundles are starting, so that they are usually ready when the bundles request the
+ * `ActorSystem` service. A bundle requesting the service before its preload started loads its
+ * settings on the calling thread instead, and the preload is skipped. Preloads that do not fit in
+ * the pool's queue are dropped in the same way.
+ *
+ * @param ctx `BundleContext` of the `com.typesafe.akka.osgi.ds` bundle.
+ * @param actorSystemName name of the shared `ActorSystem`.
+ */
+class BundleSettingsCache(ctx: BundleContext, actorSystemName: String) {
+  import BundleSettingsCache._
+
+  /** The bundle providing `akka-actor` packages. */
+  private val akkaBundle = FrameworkUtil.getBundle(classOf[ActorSystem])
+
+  /** Loaded or loading settings, by the wiring they are loaded for. */
+  private val cache = TrieMap[BundleWiring, Loading]()
+
+  private val executor = {
+    val threads = math.min(Runtime.getRuntime.availableProcessors, MaxPreloadThreads)
+    val pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+      new ArrayBlockingQueue[Runnable](PreloadQueueSize), new ThreadFactory {
+        private val count = new AtomicInteger
+        def newThread(r: Runnable) = {
+          val thread = new Thread(r, s"akka-bundle-settings-${count.incrementAndGet()}")
+          thread.setDaemon(true)
+          thread
+        }
+      }, new ThreadPoolExecutor.DiscardPolicy)
+    pool.allowCoreThreadTimeOut(true)
+    pool
+  }
+
+  private val listener = new SynchronousBundleListener {
+    def bundleChanged(event: BundleEvent): Unit = event.getType match {
+      case BundleEvent.STARTING ⇒ preload(event.getBundle)
+      case BundleEvent.UPDATED | BundleEvent.UNRESOLVED | BundleEvent.UNINSTALLED ⇒ invalidate(event.getBundle)
+      case _ ⇒
+    }
+  }
+
+  ctx.addBundleListener(listener)
+  ctx.getBundles.filter(b ⇒ (b.getState & (Bundle.STARTING | Bundle.ACTIVE)) != 0).foreach(preload)
+
+  /**
+   * Returns the settings of a bundle, waiting for a bounded time for them to be loaded in the
+   * background if that is in progress, or loading them on the calling thread otherwise.
+   *
+   * @param bundle a bundle in `STARTING`, `ACTIVE` or `STOPPING` state.
+   */
+  def apply(bundle: Bundle): BundleSettings =
+    Option(bundle.adapt(classOf[BundleWiring])) match {
+      case Some(wiring) ⇒
+        val loading = new Loading(bundle)
+        cache.putIfAbsent(wiring, loading).getOrElse(loading).get()
+      case None ⇒
+        load(bundle)
+    }
+
+  /** Stops loading settings and releases the cached ones. */
+  def close(): Unit = {
+    ctx.removeBundleListener(listener)
+    executor.shutdown()
+    cache.clear()
+  }
+
+  private def preload(bundle: Bundle): Unit =
+    Option(bundle.adapt(classOf[BundleWiring])).filter(usesAkka).foreach { wiring ⇒
+      if (!cache.contains(wiring)) {
+        val loading = new Loading(bundle)
+        if (cache.putIfAbsent(wiring, loading).isEmpty)
+          executor.execute(loading)
+      }
+    }
+
+  private def usesAkka(wiring: BundleWiring): Boolean =
+    wiring.getRequiredWires(null).exists(_.getProviderWiring.getBundle == akkaBundle)
+
+  private def invalidate(bundle: Bundle): Unit =
+    cache.readOnlySnapshot.keys.filter(w ⇒ w.getBundle == bundle || !w.isCurrent).foreach(cache.remove)
+
+  private def load(bundle: Bundle): BundleSettings = {
+    val classLoader = BundleDelegatingClassLoader(bundle.getBundleContext, None)
+    val config = ConfigFactory.load(classLoader)
+    BundleSettings(config, new ActorSystem.Settings(classLoader, config, actorSystemName))
+  }
+
+  /**
+   * Loading of a bundle's settings, performed by whichever thread claims it first: a preload
+   * thread, or the thread requesting the settings.
+   */
+  private class Loading(bundle: Bundle) extends Runnable {
+
+    private val claimed = new AtomicBoolean
+
+    private val result = Promise[BundleSettings]()
+
+    def run(): Unit =
+      claim()
+
+    /**
+     * Returns the settings, loading them on the calling thread unless that has started already.
+     * A failed or overdue background load is retried on the calling thread, so that the failure
+     * is reported to the caller.
+     */
+    def get(): BundleSettings =
+      if (claim()) result.future.value.get.get
+      else Try(Await.result(result.future, PreloadTimeout)).getOrElse(load(bundle))
+
+    private def claim(): Boolean =
+      claimed.compareAndSet(false, true) && {
+        result.complete(Try(load(bundle)))
+        true
+      }
+  }
+}
+
+object BundleSettingsCache {
+
+  /** Maximum number of threads preloading settings. */
+  private val MaxPreloadThreads = 4
+
+  /** Maximum number of bundles waiting for their settings to be preloaded. */
+  private val PreloadQueueSize = 256
+
+  /** Maximum time a bundle requesting its settings waits for the preload in progress. */
+  private val PreloadTimeout = 5.seconds
+
+  /**
+   * Configuration and Akka settings of a bundle.
+   *
+   * @param config configuration loaded from the bundle's classpath.
+   * @param settings Akka settings built according to the bundle's classpath.
+   */
+  case class BundleSettings(config: Config, settings: ActorSystem.Settings)
+}
@@ -3,6 +3,7 @@ package akka.osgi.ds.impl
 import java.net.URL
 import java.util.Enumeration
 
+import org.osgi.framework.Bundle
 import org.osgi.framework.BundleContext
 import org.osgi.framework.FrameworkUtil.getBundle
 
@@ -24,7 +25,7 @@ import akka.osgi.BundleDelegatingClassLoader
  * The actual framework-wide `ActorSystem` is created by [[ActorSystemServiceFactory]] using
  * `Config` object facade provided by this class. Then, for each bundle requesting `ActorSystem`
  * service from [[ActorSystemServiceFactory]] a configuration based on the bundle's classpath is
- * created and registered with [[DynadmicConfig.add(BundleContext, Config)]].
+ * created and registered with [[DynamicConfig.add(Bundle, Config)]].
  * Both [[ActorSystemFacade]] and [[ActorFacade]] wrap calls all client-provided code in
  * [[DynamicConfig.run[T](BundleContext)(:=>T):T]] or [[DynamicConfig.run[T](Class[_])(:=>T):T]]
  * appropriately, which alter the the thread-local delegate for the facade object to the
@@ -35,40 +36,85 @@ import akka.osgi.BundleDelegatingClassLoader
  */
 class DynamicConfig(default: Config) {
 
+  import DynamicConfig.BundleConfig
+
   /**
-   * Registered bundle configurations.
+   * Configuration holders of the bundles, shared with the facades that resolved them. A holder is
+   * created when the bundle registers its configuration or is first looked up, whichever comes
+   * first, and is kept, updated in place, until the bundle is updated or uninstalled. Guarded by
+   * `this`.
    */
-  @volatile
-  private var configs: Map[BundleContext, Config] = Map.empty
+  private var configs: Map[Bundle, BundleConfig] = Map.empty
+
+  /** Used for the classes that were not loaded from a bundle. */
+  private val defaultConfig = new BundleConfig(default)
 
   /**
    * Register configuration for a bundle.
    *
-   * @param bundleContext BundleContext of the bundle.
+   * @param bundle the bundle.
    * @param config bundle's configuration.
    */
-  def add(bundleContext: BundleContext, config: Config) =
-    configs += bundleContext → config
+  def add(bundle: Bundle, config: Config): Unit =
+    bundleConfig(bundle).config = config
+
+  /**
+   * Unregister configuration for a bundle. Code of the bundle that is still running will see the
+   * default configuration, until the bundle registers its configuration again.
+   *
+   * @param bundle the bundle.
+   */
+  def remove(bundle: Bundle): Unit = synchronized {
+    configs.get(bundle).foreach(_.config = default)
+  }
+
+  /**
+   * Drops the configuration holder of a bundle that was updated or uninstalled. Code loaded from
+   * the previous revision of the bundle that is still running will see the default configuration.
+   *
+   * @param bundle the bundle.
+   */
+  def forget(bundle: Bundle): Unit = synchronized {
+    configs.get(bundle).foreach(_.config = default)
+    configs -= bundle
+  }
+
+  /**
+   * Returns the configuration holder of the bundle that the `clazz` Class was loaded from.
+   *
+   * <p>[[org.osgi.framework.FrameworkUtil.getBundle(Class[_])]] is used to identify the bundle.
+   * The holder reflects later changes of the bundle's configuration, so it can be resolved once
+   * and used for running code repeatedly.</p>
+   *
+   * @param clazz the Class used to determine which configuration should be used.
+   */
+  def bundleConfig(clazz: Class[_]): BundleConfig =
+    Option(getBundle(clazz)).map(bundleConfig).getOrElse(defaultConfig)
 
   /**
-   * Unregister configuration for a bundle.
+   * Returns the configuration holder of a given bundle. The holder of a bundle that has not
+   * registered its configuration yet holds the default configuration, and is updated when the
+   * bundle registers it.
    *
-   * @param bundleContext BundleContext of the bundle.
+   * @param bundle the bundle used to determine which configuration should be used.
    */
-  def remove(bundleContext: BundleContext) =
-    configs -= bundleContext
+  def bundleConfig(bundle: Bundle): BundleConfig = synchronized {
+    configs.getOrElse(bundle, {
+      val bundleConfig = new BundleConfig(default)
+      configs += bundle → bundleConfig
+      bundleConfig
+    })
+  }
 
   /**
    * Execute a block of code, using configuration appropriate for the bundle that the `clazz` Class
    * was loaded from.
    *
-   * <p>[[org.osgi.framework.FrameworkUtil.getBundle(Class[_])]] is used to identify the bundle.</p>
-   *
    * @param clazz the Class used to determine which configuration should be used.
    * @param code the code to execute.
    */
   def run[T](clazz: Class[_])(code: ⇒ T): T =
-    run(configs.getOrElse(getBundle(clazz).getBundleContext, default))(code)
+    run(bundleConfig(clazz))(code)
 
   /**
    * Execute a block of code, using configuration appropriate for a given bundle.
@@ -77,21 +123,30 @@ class DynamicConfig(default: Config) {
    * @param code the code to execute.
    */
   def run[T](context: BundleContext)(code: ⇒ T): T =
-    run(configs.getOrElse(context, default))(code)
+    run(bundleConfig(context.getBundle))(code)
 
   /**
-   * Execute a block of code, using a specific configuration.
+   * Execute a block of code, using the current configuration of a bundle.
+   *
+   * The thread's previous configuration is restored afterwards, so that the calls may be nested.
+   * When the thread already uses the bundle's configuration, it is left alone.
    *
-   * @param config the configuration to use.
+   * @param bundleConfig the configuration holder obtained from one of the `bundleConfig` methods.
    * @param code the code to execute.
    */
-  private def run[T](config: Config)(code: ⇒ T): T =
-    try {
-      current.set(config)
+  def run[T](bundleConfig: BundleConfig)(code: ⇒ T): T = {
+    val config = bundleConfig.config
+    val previous = current.get
+    if (previous eq config)
       code
-    } finally {
-      current.set(default)
-    }
+    else
+      try {
+        current.set(config)
+        code
+      } finally {
+        current.set(previous)
+      }
+  }
 
   /**
    * Current delegate for the configuration facade.
@@ -267,4 +322,17 @@ class DynamicConfig(default: Config) {
     def withoutPath(path: String): Config =
       current.get.withoutPath(path)
   }
-}
\ No newline at end of file
+}
+
+object DynamicConfig {
+
+  /**
+   * Holds the configuration of a bundle. The configuration is replaced when the bundle requests
+   * the `ActorSystem` service again, and reset to the default one when the bundle releases it.
+   */
+  final class BundleConfig private[DynamicConfig] (initial: Config) {
+
+    @volatile
+    private[DynamicConfig] var config: Config = initial
+  }
+}
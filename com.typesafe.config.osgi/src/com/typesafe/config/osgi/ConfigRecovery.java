@@ -1,7 +1,12 @@
 package com.typesafe.config.osgi;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import com.typesafe.config.Config;
@@ -21,7 +26,7 @@ import com.typesafe.config.ConfigValueFactory;
  * holding the relevant expression. {@link #fromProperties(Dictionary)} method
  * recover original {@code Config} object with as much fidelity as possible.
  * </p>
- * 
+ *
  * <p>
  * Note that recovered configuration is equivalent to a result of
  * {@code com.typesafe.config.ConfigFactory.parseFile(File)} - it needs to be
@@ -29,72 +34,120 @@ import com.typesafe.config.ConfigValueFactory;
  * {@code Config.resolve()} called in order to execute substitutions.
  * </p>
  *
+ * <p>
+ * Values are collected in a single pass over the properties and merged
+ * pairwise, and all substitution expressions are parsed at once. The results
+ * of recent recoveries are remembered, so that components activated repeatedly
+ * with the same configuration do not rebuild it.
+ * </p>
+ *
  * @author Rafał Krzewski
  */
 public class ConfigRecovery {
 
+	private static final String ORIGIN_SUFFIX = ".origin";
+
+	private static final String EXPR_SUFFIX = ".expr";
+
+	/** Number of remembered recoveries. */
+	private static final int CACHE_SIZE = 16;
+
+	/** Recently recovered configurations, by properties. */
+	private static final Map<Map<String, ?>, Config> cache = Collections
+			.synchronizedMap(new LinkedHashMap<Map<String, ?>, Config>(
+					CACHE_SIZE, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<Map<String, ?>, Config> eldest) {
+					return size() > CACHE_SIZE;
+				}
+			});
+
 	/**
 	 * Recover original {@code Config} object loaded by Typesafe Config
 	 * management agent, passed by {@code ConfigurationAdmin} to a
 	 * {@code ManagedSevice}.
-	 * 
+	 *
 	 * @param properties
 	 *            Configuration properties passed through OSGi
 	 *            {@code ConfigurationAdmin}.
 	 * @return recovered {@code Config} object with value origin information.
 	 */
 	public static Config fromProperties(Dictionary<String, ?> properties) {
+		Map<String, Object> map = new HashMap<>(properties.size() * 2);
 		Enumeration<String> keys = properties.keys();
-		Config config = ConfigFactory.empty();
 		while (keys.hasMoreElements()) {
 			String key = keys.nextElement();
-			if (key.endsWith(".origin")) {
-				String originDesc = (String) properties.get(key);
-				String valueKey = key.replaceAll("\\.origin$", "");
-				Object value = properties.get(valueKey);
-				if (value != null) {
-					config = config.withValue(valueKey,
-							ConfigValueFactory.fromAnyRef(value, originDesc));
-				} else {
-					String s = valueKey + "="
-							+ properties.get(valueKey + ".expr");
-					Config c = ConfigFactory.parseString(s);
-					config = c.withFallback(config);
-				}
-			}
+			map.put(key, properties.get(key));
 		}
-		return config;
+		return fromProperties(map);
 	}
 
 	/**
 	 * Recover original {@code Config} object loaded by Typesafe Config
 	 * management agent, passed by Declarative Services runtime to a component.
-	 * 
+	 *
 	 * @param properties
 	 *            Configuration properties passed through OSGi
 	 *            {@code ConfigurationAdmin}.
 	 * @return recovered {@code Config} object with value origin information.
 	 */
 	public static Config fromProperties(Map<String, ?> properties) {
-		Config config = ConfigFactory.empty();
+		Config config = cache.get(properties);
+		if (config == null) {
+			config = recover(properties);
+			// the properties passed in may be modified by the caller later on
+			cache.put(new HashMap<String, Object>(properties), config);
+		}
+		return config;
+	}
+
+	private static Config recover(Map<String, ?> properties) {
+		List<Config> values = new ArrayList<>(properties.size() / 2);
+		StringBuilder exprs = new StringBuilder();
 		for (Map.Entry<String, ?> entry : properties.entrySet()) {
 			String key = entry.getKey();
-			if (key.endsWith(".origin")) {
+			if (key.endsWith(ORIGIN_SUFFIX)) {
 				String originDesc = (String) entry.getValue();
-				String valueKey = key.replaceAll("\\.origin$", "");
+				String valueKey = key.substring(0, key.length()
+						- ORIGIN_SUFFIX.length());
 				Object value = properties.get(valueKey);
 				if (value != null) {
-					config = config.withValue(valueKey,
-							ConfigValueFactory.fromAnyRef(value, originDesc));
+					values.add(ConfigValueFactory.fromAnyRef(value, originDesc)
+							.atPath(valueKey));
 				} else {
-					String s = valueKey + "="
-							+ properties.get(valueKey + ".expr");
-					Config c = ConfigFactory.parseString(s);
-					config = c.withFallback(config);
+					exprs.append(valueKey).append('=')
+							.append(properties.get(valueKey + EXPR_SUFFIX))
+							.append('\n');
 				}
 			}
 		}
+		Config config = merge(values, 0, values.size());
+		if (exprs.length() > 0) {
+			config = ConfigFactory.parseString(exprs.toString()).withFallback(
+					config);
+		}
 		return config;
 	}
 
+	/**
+	 * Merges a range of single value configurations. Each merge copies both
+	 * operands, so merging them pairwise in a balanced tree, rather than one
+	 * by one into a growing result, copies each value a logarithmic number of
+	 * times only.
+	 */
+	private static Config merge(List<Config> values, int from, int to) {
+		switch (to - from) {
+		case 0:
+			return ConfigFactory.empty();
+		case 1:
+			return values.get(from);
+		default:
+			int mid = (from + to) >>> 1;
+			return merge(values, from, mid).withFallback(
+					merge(values, mid, to));
+		}
+	}
 }
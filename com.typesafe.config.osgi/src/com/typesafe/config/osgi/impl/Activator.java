@@ -1,5 +1,6 @@
 package com.typesafe.config.osgi.impl;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -14,12 +15,26 @@ public class Activator implements BundleActivator {
 
 	private static final String BASE_PATH = "conf";
 
+	/**
+	 * Framework property holding the time in milliseconds a configuration
+	 * file must remain unchanged before it is loaded.
+	 */
+	private static final String QUIET_PERIOD_PROPERTY = "com.typesafe.config.osgi.quietPeriod";
+
+	private static final long DEFAULT_QUIET_PERIOD = 500;
+
+	/** Data file holding the content hashes of the configuration files. */
+	private static final String HASH_INDEX = "hashes.properties";
+
 	private ServiceTracker<ConfigurationAdmin, ConfigurationWatcher> configAdminTracker;
 
 	@Override
 	public void start(BundleContext context) throws Exception {
 
 		final Path basePath = Paths.get(BASE_PATH);
+		final long quietPeriod = quietPeriod(context);
+		final int parallelism = Runtime.getRuntime().availableProcessors();
+		final File hashIndex = context.getDataFile(HASH_INDEX);
 
 		configAdminTracker = new ServiceTracker<ConfigurationAdmin, ConfigurationWatcher>(
 				context, ConfigurationAdmin.class, null) {
@@ -29,10 +44,12 @@ public class Activator implements BundleActivator {
 					ServiceReference<ConfigurationAdmin> reference) {
 				ConfigurationAdmin configAdmin = context.getService(reference);
 				ConfigurationHandler handler = new ConfigurationHandler(
-						basePath, configAdmin);
+						basePath, configAdmin, parallelism, hashIndex);
 				try {
-					return new ConfigurationWatcher(basePath, handler);
+					return new ConfigurationWatcher(basePath, handler,
+							quietPeriod);
 				} catch (IOException e) {
+					handler.close();
 					e.printStackTrace();
 					return null;
 				}
@@ -49,6 +66,19 @@ public class Activator implements BundleActivator {
 		configAdminTracker.open();
 	}
 
+	private long quietPeriod(BundleContext context) {
+		String value = context.getProperty(QUIET_PERIOD_PROPERTY);
+		if (value != null) {
+			try {
+				return Long.parseLong(value.trim());
+			} catch (NumberFormatException e) {
+				System.err.println("invalid " + QUIET_PERIOD_PROPERTY + " "
+						+ value + ", using " + DEFAULT_QUIET_PERIOD);
+			}
+		}
+		return DEFAULT_QUIET_PERIOD;
+	}
+
 	@Override
 	public void stop(BundleContext context) throws Exception {
 		configAdminTracker.close();
@@ -1,11 +1,34 @@
 package com.typesafe.config.osgi.impl;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardWatchEventKinds;
-import java.nio.file.WatchEvent;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.osgi.framework.Constants;
 import org.osgi.framework.InvalidSyntaxException;
@@ -29,58 +52,340 @@ public class ConfigurationHandler {
 
 	private static final String CONFIG_KEY = "com.typesafe.config.source";
 
+	private static final String HASH_KEY = "com.typesafe.config.hash";
+
+	private static final String HASH_ALGORITHM = "SHA-1";
+
 	private Path basePath;
 
 	private ConfigurationAdmin configAdmin;
 
-	public ConfigurationHandler(Path basePath, ConfigurationAdmin configAdmin) {
+	/** Parses changed files in parallel. */
+	private ExecutorService parser;
+
+	/** Files whose configurations were applied, relative to the base path. */
+	private Set<Path> applied = new HashSet<>();
+
+	/**
+	 * Configurations managed by this handler, by source file key. Accessed by
+	 * the watcher thread only.
+	 */
+	private Map<String, Configuration> configurations = new HashMap<>();
+
+	/**
+	 * Content hashes of the files the configurations were loaded from, by
+	 * source file key. Read by the parser threads.
+	 */
+	private Map<String, String> hashes = new ConcurrentHashMap<>();
+
+	/**
+	 * File the content hashes are persisted in, or {@code null}. Configurations
+	 * carry the hash of the file they were last updated from, the index also
+	 * keeps the hashes of the files that were edited without changing their
+	 * settings, so that they are not parsed again after a restart.
+	 */
+	private File hashIndex;
+
+	/** Whether the hashes changed since the index was last saved. */
+	private boolean hashesChanged;
+
+	public ConfigurationHandler(Path basePath, ConfigurationAdmin configAdmin,
+			int parallelism, File hashIndex) {
 		this.basePath = basePath;
 		this.configAdmin = configAdmin;
+		this.hashIndex = hashIndex;
+		loadConfigurations();
+		loadHashIndex();
+		this.parser = Executors.newFixedThreadPool(parallelism,
+				new ThreadFactory() {
+					private AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "config-parser-"
+								+ count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
 	}
 
-	public void handleEvent(WatchEvent<Path> event) {
-		if (event.kind() == StandardWatchEventKinds.ENTRY_MODIFY) {
-			configModified(event.context(), parsePid(event.context()));
-		} else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
-			configRemoved(event.context(), parsePid(event.context()));
+	/**
+	 * Loads the configurations created by this handler, so that they need not
+	 * be looked up in ConfigurationAdmin on every change.
+	 */
+	private void loadConfigurations() {
+		try {
+			Configuration[] existing = configAdmin.listConfigurations("("
+					+ CONFIG_KEY + "=*)");
+			if (existing != null) {
+				for (Configuration config : existing) {
+					Dictionary<String, Object> props = config.getProperties();
+					if (props != null) {
+						String configKey = (String) props.get(CONFIG_KEY);
+						configurations.put(configKey, config);
+						Object hash = props.get(HASH_KEY);
+						if (hash instanceof String) {
+							hashes.put(configKey, (String) hash);
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+			error("failed to list configurations", e);
+		} catch (InvalidSyntaxException e) {
+			throw new RuntimeException("implementation error", e);
 		}
 	}
 
-	private void configModified(Path path, String[] pid) {
-		try {
-			Configuration config = getConfiguration(toConfigKey(path), pid);
-			Dictionary<String, Object> oldProps = config.getProperties();
-			if (oldProps != null) {
-				oldProps.remove(CONFIG_KEY);
-				oldProps.remove(Constants.SERVICE_PID);
-				oldProps.remove(ConfigurationAdmin.SERVICE_FACTORYPID);
+	/**
+	 * Replaces the hashes stored in the configurations with the ones from the
+	 * index, for the configurations that still exist.
+	 */
+	private void loadHashIndex() {
+		if (hashIndex == null || !hashIndex.isFile()) {
+			return;
+		}
+		Properties index = new Properties();
+		try (InputStream in = Files.newInputStream(hashIndex.toPath())) {
+			index.load(in);
+		} catch (IOException e) {
+			error("failed to read configuration hashes", e);
+			return;
+		}
+		for (String configKey : configurations.keySet()) {
+			String hash = index.getProperty(configKey);
+			if (hash != null) {
+				hashes.put(configKey, hash);
 			}
-			Dictionary<String, Object> newProps = loadConfig(path);
-			if (!newProps.equals(oldProps)) {
-				config.update(newProps);
+		}
+	}
+
+	private void saveHashIndex() {
+		if (hashIndex == null || !hashesChanged) {
+			return;
+		}
+		Properties index = new Properties();
+		index.putAll(hashes);
+		Path file = hashIndex.toPath();
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try {
+			try (OutputStream out = Files.newOutputStream(temp)) {
+				index.store(out, null);
 			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			hashesChanged = false;
 		} catch (IOException e) {
-			error("failed to locate configuration " + formatPid(pid), e);
+			error("failed to save configuration hashes", e);
 		}
 	}
 
-	private void configRemoved(Path path, String[] pid) {
+	/**
+	 * Applies the files found at startup, and deletes the configurations of
+	 * the files that were removed in the meantime.
+	 * 
+	 * @param files
+	 *            existing files, relative to the base path.
+	 * @throws InterruptedException
+	 *             when the thread is interrupted while waiting for parsing.
+	 */
+	public void handleInitial(Set<Path> files) throws InterruptedException {
+		Set<String> existing = new HashSet<>();
+		for (Path path : files) {
+			existing.add(toConfigKey(path));
+		}
+		for (String configKey : new ArrayList<>(configurations.keySet())) {
+			if (!existing.contains(configKey)) {
+				deleteConfiguration(configKey, configKey);
+			}
+		}
+		handleChanges(files);
+	}
+
+	/**
+	 * Applies a batch of changed files. Files that exist are parsed in
+	 * parallel, and once all of them are parsed, the configurations are
+	 * updated, and configurations of the files that no longer exist are
+	 * deleted. Files that could not be parsed are reported and skipped, and
+	 * files whose content did not change since their configuration was
+	 * updated are not parsed at all.
+	 * 
+	 * @param files
+	 *            changed files, relative to the base path.
+	 * @throws InterruptedException
+	 *             when the thread is interrupted while waiting for parsing.
+	 */
+	public void handleChanges(Set<Path> files) throws InterruptedException {
+		Map<Path, Future<Dictionary<String, Object>>> parsed = new LinkedHashMap<>();
+		List<Path> removed = new ArrayList<>();
+		for (final Path path : files) {
+			if (Files.isRegularFile(basePath.resolve(path))) {
+				parsed.put(path, parser
+						.submit(new Callable<Dictionary<String, Object>>() {
+							@Override
+							public Dictionary<String, Object> call()
+									throws IOException {
+								return loadChangedConfig(path);
+							}
+						}));
+			} else {
+				removed.add(path);
+			}
+		}
+		Map<Path, Dictionary<String, Object>> loaded = new LinkedHashMap<>();
 		try {
-			Configuration config = findExistingConfiguration(toConfigKey(path));
-			try {
-				if (config != null) {
-					config.delete();
+			for (Map.Entry<Path, Future<Dictionary<String, Object>>> e : parsed
+					.entrySet()) {
+				try {
+					Dictionary<String, Object> props = e.getValue().get();
+					if (props != null) {
+						loaded.put(e.getKey(), props);
+					} else {
+						applied.add(e.getKey());
+					}
+				} catch (ExecutionException ex) {
+					error("failed to parse configuration file " + e.getKey(),
+							ex.getCause());
 				}
-			} catch (IOException e) {
-				error("failed to delete configuration for " + formatPid(pid), e);
 			}
-		} catch (IOException e) {
-			error("failed to locate configuration " + formatPid(pid), e);
+		} catch (InterruptedException e) {
+			for (Future<?> f : parsed.values()) {
+				f.cancel(true);
+			}
+			throw e;
+		}
+		for (Map.Entry<Path, Dictionary<String, Object>> e : loaded.entrySet()) {
+			configModified(e.getKey(), parsePid(e.getKey()), e.getValue());
+			applied.add(e.getKey());
+		}
+		for (Path path : removed) {
+			applied.remove(path);
+			configRemoved(path, parsePid(path));
+		}
+		saveHashIndex();
+	}
+
+	/**
+	 * Returns the files whose configurations were applied.
+	 */
+	public Set<Path> knownFiles() {
+		return new HashSet<>(applied);
+	}
+
+	/**
+	 * Returns the files within the given directory whose configurations were
+	 * applied.
+	 * 
+	 * @param dir
+	 *            directory relative to the base path.
+	 */
+	public Set<Path> knownFiles(Path dir) {
+		Set<Path> files = new HashSet<>();
+		for (Path path : applied) {
+			if (path.startsWith(dir)) {
+				files.add(path);
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Stops the parser threads.
+	 */
+	public void close() {
+		parser.shutdownNow();
+	}
+
+	private void configModified(Path path, String[] pid,
+			Dictionary<String, Object> newProps) {
+		String configKey = toConfigKey(path);
+		newProps.put(CONFIG_KEY, configKey);
+		Object hash = newProps.remove(HASH_KEY);
+		try {
+			Configuration config;
+			try {
+				config = updateConfiguration(configKey, pid, newProps, hash);
+			} catch (IllegalStateException e) {
+				// the cached configuration was deleted outside this handler
+				configurations.remove(configKey);
+				config = updateConfiguration(configKey, pid, newProps, hash);
+			}
+			configurations.put(configKey, config);
+			hashes.put(configKey, (String) hash);
+			hashesChanged = true;
+		} catch (IOException | IllegalStateException e) {
+			error("failed to update configuration " + formatPid(pid), e);
+		}
+	}
+
+	/**
+	 * Updates the configuration of a file with new properties, unless they
+	 * are the same as the current ones. A file edited without changing the
+	 * settings, for example its comments, does not cause an update.
+	 * 
+	 * @return the configuration.
+	 * @throws IllegalStateException
+	 *             when the configuration has been deleted.
+	 */
+	private Configuration updateConfiguration(String configKey, String[] pid,
+			Dictionary<String, Object> newProps, Object hash)
+			throws IOException {
+		Configuration config = getConfiguration(configKey, pid);
+		Dictionary<String, Object> oldProps = config.getProperties();
+		if (oldProps != null) {
+			oldProps.remove(Constants.SERVICE_PID);
+			oldProps.remove(ConfigurationAdmin.SERVICE_FACTORYPID);
+			oldProps.remove(HASH_KEY);
+		}
+		if (!sameProperties(newProps, oldProps)) {
+			newProps.put(HASH_KEY, hash);
+			config.update(newProps);
+		}
+		return config;
+	}
+
+	/**
+	 * Compares configuration properties entry by entry, as the dictionaries
+	 * returned by ConfigurationAdmin need not be Maps.
+	 */
+	private static boolean sameProperties(Dictionary<String, Object> newProps,
+			Dictionary<String, Object> oldProps) {
+		if (oldProps == null || newProps.size() != oldProps.size()) {
+			return false;
+		}
+		for (Enumeration<String> keys = newProps.keys(); keys
+				.hasMoreElements();) {
+			String key = keys.nextElement();
+			// deepEquals compares array values by content
+			if (!Arrays.deepEquals(new Object[] { newProps.get(key) },
+					new Object[] { oldProps.get(key) })) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void configRemoved(Path path, String[] pid) {
+		deleteConfiguration(toConfigKey(path), formatPid(pid));
+	}
+
+	private void deleteConfiguration(String configKey, String description) {
+		hashes.remove(configKey);
+		hashesChanged = true;
+		Configuration config = configurations.remove(configKey);
+		try {
+			if (config != null) {
+				config.delete();
+			}
+		} catch (IOException | IllegalStateException e) {
+			// IllegalStateException: already deleted by someone else
+			error("failed to delete configuration for " + description, e);
 		}
 	}
 
 	private String toConfigKey(Path path) {
-		return path.toAbsolutePath().toUri().toString();
+		return basePath.resolve(path).toAbsolutePath().toUri().toString();
 	}
 
 	private String[] parsePid(Path path) {
@@ -100,14 +405,13 @@ public class ConfigurationHandler {
 		StringBuilder buff = new StringBuilder();
 		buff.append(pid[0]);
 		if (pid[1] != null)
-			;
-		buff.append("-").append(pid[1]);
+			buff.append("-").append(pid[1]);
 		return buff.toString();
 	}
 
 	private Configuration getConfiguration(String configKey, String[] pid)
 			throws IOException {
-		Configuration oldConfiguration = findExistingConfiguration(configKey);
+		Configuration oldConfiguration = configurations.get(configKey);
 		if (oldConfiguration != null) {
 			return oldConfiguration;
 		} else {
@@ -123,28 +427,38 @@ public class ConfigurationHandler {
 		}
 	}
 
-	private Configuration findExistingConfiguration(String configKey)
+	/**
+	 * Loads the configuration from a file, unless the file has the same
+	 * content as when the configuration was last updated.
+	 * 
+	 * @return the configuration properties, or {@code null} when the file did
+	 *         not change.
+	 */
+	private Dictionary<String, Object> loadChangedConfig(Path path)
 			throws IOException {
+		String hash = hash(Files.readAllBytes(basePath.resolve(path)));
+		if (hash.equals(hashes.get(toConfigKey(path)))) {
+			return null;
+		}
+		Dictionary<String, Object> props = loadConfig(path);
+		props.put(HASH_KEY, hash);
+		return props;
+	}
+
+	private String hash(byte[] content) {
 		try {
-			String filter = "(" + CONFIG_KEY + "="
-					+ escapeFilterValue(configKey) + ")";
-			Configuration[] configurations = configAdmin
-					.listConfigurations(filter);
-			if (configurations != null && configurations.length > 0) {
-				return configurations[0];
-			} else {
-				return null;
+			byte[] digest = MessageDigest.getInstance(HASH_ALGORITHM).digest(
+					content);
+			StringBuilder buff = new StringBuilder();
+			for (byte b : digest) {
+				buff.append(String.format("%02x", b & 0xff));
 			}
-		} catch (InvalidSyntaxException e) {
+			return buff.toString();
+		} catch (NoSuchAlgorithmException e) {
 			throw new RuntimeException("implementation error", e);
 		}
 	}
 
-	private String escapeFilterValue(String s) {
-		return s.replaceAll("[(]", "\\\\(").replaceAll("[)]", "\\\\)")
-				.replaceAll("[=]", "\\\\=").replaceAll("[\\*]", "\\\\*");
-	}
-
 	private Dictionary<String, Object> loadConfig(Path path) {
 		Config config = ConfigFactory
 				.parseFile(basePath.resolve(path).toFile());
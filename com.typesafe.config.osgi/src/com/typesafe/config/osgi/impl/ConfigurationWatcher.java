@@ -1,18 +1,43 @@
 package com.typesafe.config.osgi.impl;
 
 import java.io.IOException;
-import java.nio.file.DirectoryStream;
+import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
-
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the configuration directory and its subdirectories for changes of
+ * {@code .conf} files.
+ *
+ * <p>
+ * Events are coalesced per file: a file is handed over to the
+ * {@link ConfigurationHandler} once no events concerning it arrived for the
+ * quiet period, so that a burst of writes results in a single update. All
+ * files that became quiet at the same time are handled as one batch. Whether a
+ * file was created, modified, renamed or deleted is determined by checking the
+ * file system when the batch is handled.
+ * </p>
+ */
 public class ConfigurationWatcher {
 
+	private static final long JOIN_TIMEOUT = 5000;
+
 	private WatchService watchService;
 
 	private Thread worker;
@@ -21,82 +46,203 @@ public class ConfigurationWatcher {
 
 	private Path basePath;
 
-	public ConfigurationWatcher(Path basePath, ConfigurationHandler handler)
-			throws IOException {
+	private long quietPeriod;
+
+	/** Watched directories. Accessed by the worker thread only. */
+	private Map<WatchKey, Path> directories = new HashMap<>();
+
+	/**
+	 * @param basePath
+	 *            the watched directory.
+	 * @param handler
+	 *            handler of the changed files.
+	 * @param quietPeriod
+	 *            time in milliseconds without events concerning a file, after
+	 *            which the file is handled.
+	 */
+	public ConfigurationWatcher(Path basePath, ConfigurationHandler handler,
+			long quietPeriod) throws IOException {
 		this.basePath = basePath;
 		this.handler = handler;
+		this.quietPeriod = quietPeriod;
 		FileSystem fileSystem = FileSystems.getDefault();
 		watchService = fileSystem.newWatchService();
-		WatchKey key = basePath.register(watchService,
-				StandardWatchEventKinds.ENTRY_CREATE,
-				StandardWatchEventKinds.ENTRY_DELETE,
-				StandardWatchEventKinds.ENTRY_MODIFY);
-		worker = new Worker(Files.newDirectoryStream(basePath, "*.conf"), key);
+		Set<Path> initialFiles = register(basePath);
+		worker = new Worker(initialFiles);
 		worker.start();
 	}
 
+	/**
+	 * Stops the worker thread, waiting for the batch being handled, if any.
+	 */
 	public void close() {
 		worker.interrupt();
+		try {
+			worker.join(JOIN_TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			// nothing to do
+		}
+		handler.close();
+	}
+
+	/**
+	 * Registers a directory and its subdirectories with the watch service.
+	 *
+	 * @return {@code .conf} files found in the directories, relative to the
+	 *         base path.
+	 */
+	private Set<Path> register(Path dir) throws IOException {
+		final Set<Path> files = new HashSet<>();
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir,
+					BasicFileAttributes attrs) throws IOException {
+				WatchKey key = dir.register(watchService,
+						StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_DELETE,
+						StandardWatchEventKinds.ENTRY_MODIFY);
+				directories.put(key, dir);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file,
+					BasicFileAttributes attrs) {
+				if (isConfigFile(file)) {
+					files.add(basePath.relativize(file));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return files;
+	}
+
+	private static boolean isConfigFile(Path path) {
+		return path.getFileName().toString().endsWith(".conf");
 	}
 
 	private class Worker extends Thread {
 
-		private DirectoryStream<Path> initialFiles;
+		private Set<Path> initialFiles;
 
-		private WatchKey initialKey;
+		/** Time of the latest event, by changed file, in arrival order. */
+		private Map<Path, Long> pending = new LinkedHashMap<>();
 
-		public Worker(DirectoryStream<Path> initalFiles, WatchKey initialKey) {
-			this.initialFiles = initalFiles;
-			this.initialKey = initialKey;
+		public Worker(Set<Path> initialFiles) {
+			super("config-watcher");
+			setDaemon(true);
+			this.initialFiles = initialFiles;
 		}
 
 		@Override
 		public void run() {
-			for (Path path : initialFiles) {
-				handler.handleEvent(mockEvent(basePath.relativize(path)));
-			}
 			try {
-				WatchKey key = initialKey;
+				handler.handleInitial(initialFiles);
 				// release initial data before going into long running main loop
 				initialFiles = null;
-				initialKey = null;
 				while (!Thread.interrupted()) {
-					for (WatchEvent<?> event : key.pollEvents()) {
-						if (event.context() instanceof Path) {
-							@SuppressWarnings("unchecked")
-							WatchEvent<Path> standardEvent = (WatchEvent<Path>) event;
-							if (standardEvent.context().toString()
-									.endsWith(".conf")) {
-								handler.handleEvent(standardEvent);
-							}
-						}
+					WatchKey key;
+					if (pending.isEmpty()) {
+						key = watchService.take();
+					} else {
+						long wait = nextDeadline() - System.nanoTime();
+						key = watchService.poll(Math.max(wait, 0),
+								TimeUnit.NANOSECONDS);
+					}
+					if (key != null) {
+						collectEvents(key);
+					}
+					Set<Path> quiet = takeQuietFiles();
+					if (!quiet.isEmpty()) {
+						handler.handleChanges(quiet);
 					}
-					key.reset();
-					key = watchService.take();
 				}
-			} catch (InterruptedException e) {
+			} catch (InterruptedException | ClosedWatchServiceException e) {
 				return;
 			}
 		}
 
-		private WatchEvent<Path> mockEvent(final Path path) {
-			return new WatchEvent<Path>() {
-				@Override
-				public WatchEvent.Kind<Path> kind() {
-					return StandardWatchEventKinds.ENTRY_MODIFY;
+		private void collectEvents(WatchKey key) {
+			Path dir = directories.get(key);
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+					rescan();
+				} else if (dir != null && event.context() instanceof Path) {
+					Path path = dir.resolve((Path) event.context());
+					if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+							&& Files.isDirectory(path)) {
+						// files created before the directory was registered
+						// are not reported by the watch service
+						try {
+							changed(register(path));
+						} catch (IOException e) {
+							error("failed to watch directory " + path, e);
+						}
+					} else if (isConfigFile(path)) {
+						changed(basePath.relativize(path));
+					} else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+						// possibly a directory, containing configuration files
+						changed(handler.knownFiles(basePath.relativize(path)));
+					}
 				}
+			}
+			if (!key.reset()) {
+				directories.remove(key);
+			}
+		}
 
-				@Override
-				public int count() {
-					return 1;
-				}
+		private void rescan() {
+			try {
+				changed(register(basePath));
+			} catch (IOException e) {
+				error("failed to rescan " + basePath, e);
+			}
+			changed(handler.knownFiles());
+		}
+
+		private void changed(Path file) {
+			pending.remove(file);
+			pending.put(file, System.nanoTime());
+		}
 
-				@Override
-				public Path context() {
-					return path;
+		private void changed(Set<Path> files) {
+			for (Path file : files) {
+				changed(file);
+			}
+		}
+
+		// entries are kept in the order of their latest event, so the first
+		// one is the first to become quiet
+
+		private long nextDeadline() {
+			return pending.values().iterator().next()
+					+ TimeUnit.MILLISECONDS.toNanos(quietPeriod);
+		}
+
+		private Set<Path> takeQuietFiles() {
+			Set<Path> quiet = new HashSet<>();
+			long limit = System.nanoTime()
+					- TimeUnit.MILLISECONDS.toNanos(quietPeriod);
+			Iterator<Map.Entry<Path, Long>> i = pending.entrySet().iterator();
+			while (i.hasNext()) {
+				Map.Entry<Path, Long> e = i.next();
+				if (e.getValue() - limit > 0) {
+					break;
 				}
-			};
+				quiet.add(e.getKey());
+				i.remove();
+			}
+			return quiet;
 		}
 	}
 
+	private void error(String msg, Throwable t) {
+		System.err.println(msg);
+		t.printStackTrace(System.err);
+	}
 }
@@ -7,7 +7,7 @@ import spray.osgi.RouteProvider
 import spray.routing.Directives._
 import spray.routing.Route
 
-@Component
+@Component(property = Array("spray.route.prefix=hello"))
 class HelloEndpoint extends RouteProvider {
   def route: Route =
     path("hello") {
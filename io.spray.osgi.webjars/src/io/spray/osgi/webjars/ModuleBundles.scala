@@ -0,0 +1,184 @@
+package io.spray.osgi.webjars
+
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.util.zip.CRC32
+
+import scala.collection.concurrent.TrieMap
+
+import spray.http.ContentType
+import spray.http.DateTime
+import spray.http.EntityTag
+import spray.http.HttpCharsets.`UTF-8`
+import spray.http.HttpEntity
+import spray.http.MediaTypes.`application/javascript`
+import spray.httpx.marshalling.ToResponseMarshallable.isMarshallable
+import spray.osgi.RouteManager
+import spray.routing.Directive.pimpApply
+import spray.routing.Directives.complete
+import spray.routing.Directives.conditional
+import spray.routing.Directives.get
+import spray.routing.Directives.path
+import spray.routing.PathMatcher.segmentStringToPathMatcher
+import spray.routing.Route
+
+/**
+ * Serves the contents of several webjar modules concatenated into a single response, saving
+ * the browser a round trip per module.
+ *
+ * A module is identified by the artifact of its webjar and the path of the file relative to
+ * the webjar's versioned resource directory, for example `jquery/jquery.js`. Modules are
+ * listed in the `modules` query parameter of `/webjars/bundle.js`, separated by commas, or in a
+ * named list configured for the webjars component, requested with the `name` parameter.
+ * Requests referring to unknown modules are rejected.
+ *
+ * Modules are concatenated in the listed order. Anonymous AMD modules cannot be loaded from a
+ * concatenation, only named modules and plain scripts can be bundled.
+ *
+ * A list is concatenated when it is first requested, on the resource I/O pool of the route
+ * manager. Concatenations of the named lists are kept, concatenations of the ad hoc lists are
+ * kept up to a limit, the least recently used ones are discarded first. Responses carry an
+ * entity tag derived from the content, and the modification time of the webjars involved.
+ *
+ * An instance reflects a fixed set of webjars and is replaced whenever a webjar is added or
+ * removed, which discards the concatenations computed so far.
+ *
+ * @param routeManager route manager of the Spray server.
+ * @param webjars resources of the available webjars, by artifact.
+ * @param named module lists served by name.
+ */
+class ModuleBundles(routeManager: RouteManager, webjars: Map[String, WebjarsActor.WebjarResources], named: Map[String, Seq[String]]) {
+  import ModuleBundles._
+
+  /** Concatenations of the named lists computed so far. */
+  private val namedCache = TrieMap[Seq[String], Option[Concatenation]]()
+
+  /** Concatenations of the ad hoc lists computed so far, in access order. Guarded by itself. */
+  private val adHocCache = new java.util.LinkedHashMap[Seq[String], Option[Concatenation]](16, 0.75f, true) {
+    override def removeEldestEntry(eldest: java.util.Map.Entry[Seq[String], Option[Concatenation]]): Boolean =
+      size > MaxCachedBundles
+  }
+
+  def route: Route =
+    path("webjars" / "bundle.js") {
+      get { ctx ⇒
+        val query = ctx.request.uri.query
+        val modules = query.get("name").map(named.get).getOrElse {
+          query.get("modules").map(_.split(',').map(_.trim).filter(_.nonEmpty).toSeq)
+        }
+        modules match {
+          case Some(list) ⇒
+            cached(list) match {
+              case Some(concatenation) ⇒ respond(concatenation)(ctx)
+              case None ⇒ routeManager.detachedIo(respond(concatenated(list)))(ctx)
+            }
+          case None ⇒ ctx.reject()
+        }
+      }
+    }
+
+  private def respond(concatenation: Option[Concatenation]): Route =
+    concatenation match {
+      case Some(Concatenation(entity, tag, lastModified)) ⇒
+        conditional(tag, lastModified) {
+          complete(entity)
+        }
+      case None ⇒ _.reject()
+    }
+
+  /**
+   * Returns the concatenation of the given modules if it was computed already.
+   */
+  private def cached(modules: Seq[String]): Option[Option[Concatenation]] =
+    if (named.values.exists(_ == modules)) namedCache.get(modules)
+    else adHocCache.synchronized { Option(adHocCache.get(modules)) }
+
+  /**
+   * Returns the concatenated contents of the given modules, or `None` if any of them is missing.
+   * Blocks on reading the modules, unless the concatenation was computed already.
+   */
+  private def concatenated(modules: Seq[String]): Option[Concatenation] =
+    cached(modules).getOrElse {
+      val concatenation = concatenate(modules)
+      if (named.values.exists(_ == modules)) namedCache.putIfAbsent(modules, concatenation)
+      else adHocCache.synchronized { adHocCache.put(modules, concatenation) }
+      concatenation
+    }
+
+  private def concatenate(modules: Seq[String]): Option[Concatenation] = {
+    val out = new ByteArrayOutputStream
+    val found = modules.forall { module ⇒
+      read(module).map { bytes ⇒
+        out.write(s"/* $module */\n".getBytes(`UTF-8`.nioCharset))
+        out.write(bytes)
+        out.write(Separator)
+      }.isDefined
+    }
+    if (found && modules.nonEmpty) {
+      val bytes = out.toByteArray
+      val crc = new CRC32
+      crc.update(bytes)
+      val tag = EntityTag(java.lang.Long.toHexString(crc.getValue) + "-" + java.lang.Integer.toHexString(bytes.length))
+      val lastModified = modules.flatMap(m ⇒ webjars.get(m.takeWhile(_ != '/'))).map(_.webjar.bundle.getLastModified).max
+      Some(Concatenation(HttpEntity(ContentType(`application/javascript`, `UTF-8`), bytes), tag,
+        DateTime(math.min(lastModified, System.currentTimeMillis))))
+    } else None
+  }
+
+  private def read(module: String): Option[Array[Byte]] =
+    module.split("/", 2) match {
+      case Array(artifact, file) if !file.split("/").contains("..") ⇒
+        for {
+          resources ← webjars.get(artifact)
+          version ← directoryVersion(resources)
+          url ← Option(resources.webjar.bundle.getEntry(s"META-INF/resources/webjars/$artifact/$version/$file"))
+          bytes ← readAll(url)
+        } yield bytes
+      case _ ⇒ None
+    }
+
+  /**
+   * Returns the version directory modules of a webjar are read from: the one named after the
+   * version in the webjar's POM if present, as repackaged webjars may use a different name,
+   * otherwise the first one.
+   */
+  private def directoryVersion(resources: WebjarsActor.WebjarResources): Option[String] =
+    resources.versions.find(_ == resources.webjar.version).orElse(resources.versions.headOption)
+
+  private def readAll(url: java.net.URL): Option[Array[Byte]] =
+    try {
+      val conn = url.openConnection()
+      conn.setUseCaches(false)
+      val is = conn.getInputStream
+      try {
+        val out = new ByteArrayOutputStream
+        val buffer = new Array[Byte](8192)
+        var n = is.read(buffer)
+        while (n >= 0) {
+          out.write(buffer, 0, n)
+          n = is.read(buffer)
+        }
+        Some(out.toByteArray)
+      } finally { is.close() }
+    } catch {
+      case e: IOException ⇒ None
+    }
+}
+
+object ModuleBundles {
+
+  val BundlePath = "webjars/bundle.js"
+
+  /**
+   * @param entity the concatenated modules.
+   * @param tag entity tag derived from the content.
+   * @param lastModified latest modification time of the webjars providing the modules.
+   */
+  private case class Concatenation(entity: HttpEntity, tag: EntityTag, lastModified: DateTime)
+
+  /** Maximum number of cached concatenations of ad hoc lists. */
+  private val MaxCachedBundles = 64
+
+  /** Terminates each module, in case its last statement lacks a semicolon. */
+  private val Separator = "\n;\n".getBytes("UTF-8")
+}
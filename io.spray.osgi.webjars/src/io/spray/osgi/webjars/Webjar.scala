@@ -1,73 +1,106 @@
 package io.spray.osgi.webjars
 
+import java.io.InputStream
 import java.io.StringWriter
 
 import scala.collection.JavaConversions.asScalaIterator
 import scala.collection.JavaConversions.enumerationAsScalaIterator
 
 import org.osgi.framework.Bundle
-import org.w3c.dom.Document
-import org.xml.sax.InputSource
 
 import com.fasterxml.jackson.databind.ObjectMapper
 import com.fasterxml.jackson.databind.node.JsonNodeType
 import com.fasterxml.jackson.databind.node.ObjectNode
 
-import javax.xml.namespace.NamespaceContext
-import javax.xml.parsers.DocumentBuilderFactory
-import javax.xml.xpath.XPathFactory
+import javax.xml.stream.XMLInputFactory
+import javax.xml.stream.XMLStreamConstants
 
 case class Webjar(artifact: String, version: String, requireJsConfig: Option[String], bundle: Bundle)
 
 object Webjar {
 
+  /**
+   * Loads the metadata of a webjar bundle from its POM. Returns `None` if the bundle is not a
+   * webjar.
+   */
   def load(bundle: Bundle): Option[Webjar] = {
     readPom(bundle).map { pom ⇒
-      val x = xpathFactory.newXPath()
-      x.setNamespaceContext(nsContext)
-      val artifact = x.evaluate("/project/artifactId/text()", pom)
-      val projectVersion = x.evaluate("/project/version/text()", pom)
-      val parentVersion = x.evaluate("/project/parent/version/text()", pom)
-      val version = if (projectVersion == "") parentVersion else projectVersion
-      Webjar(artifact, version, requireJsConfig(artifact, version, pom), bundle)
+      val version = if (pom.version == "") pom.parentVersion else pom.version
+      Webjar(pom.artifactId, version, pom.requireJs.flatMap(requireJsConfig(pom.artifactId, version, _)), bundle)
     }
   }
 
-  private val docBuilderFactory = DocumentBuilderFactory.newInstance()
+  /** The POM elements webjar metadata are read from. */
+  private case class Pom(artifactId: String, version: String, parentVersion: String, requireJs: Option[String])
 
-  private val xpathFactory = XPathFactory.newInstance()
+  private val inputFactory = {
+    val f = XMLInputFactory.newInstance()
+    f.setProperty(XMLInputFactory.SUPPORT_DTD, false)
+    f.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false)
+    f
+  }
 
   private val mapper = new ObjectMapper
 
-  private val nsContext = new NamespaceContext {
-    def getNamespaceURI(prefix: String): String = "http://maven.apache.org/POM/4.0.0"
-    def getPrefix(nsUri: String): String = ???
-    def getPrefixes(nsUri: String): java.util.Iterator[_] = ???
-  }
+  // webjars are loaded concurrently, and the factory is not guaranteed to be thread safe
 
-  private def readPom(bundle: Bundle): Option[Document] = {
+  private def newStreamReader(is: InputStream) =
+    inputFactory.synchronized { inputFactory.createXMLStreamReader(is) }
+
+  private def readPom(bundle: Bundle): Option[Pom] = {
     val entriesOpt = Option(bundle.findEntries("META-INF/maven/org.webjars", "pom.xml", true))
     entriesOpt.flatMap { entries ⇒
       entries.toStream.headOption
     }.map { url ⇒
-      val conn = url.openConnection();
+      val conn = url.openConnection()
       conn.setUseCaches(false)
+      val is = conn.getInputStream
       try {
-        val source = new InputSource(conn.getInputStream)
-        docBuilderFactory.newDocumentBuilder().parse(source)
+        parsePom(is)
       } finally {
-        conn.getInputStream().close()
+        is.close()
       }
     }
   }
 
-  private def requireJsConfig(artifact: String, version: String, pom: Document): Option[String] = {
-
-    def readConfig: Option[String] = {
-      val x = xpathFactory.newXPath()
-      x.setNamespaceContext(nsContext)
-      Option(x.evaluate("//project/properties/requirejs/text()", pom))
+  /**
+   * Reads the POM in a single streaming pass, picking only the elements webjar metadata are read
+   * from, instead of building a DOM of the whole document.
+   */
+  private def parsePom(is: InputStream): Pom = {
+    val reader = newStreamReader(is)
+    try {
+      var pom = Pom("", "", "", None)
+      // names of the enclosing elements, innermost first
+      var path = List[String]()
+      val text = new StringBuilder
+      while (reader.hasNext) {
+        reader.next() match {
+          case XMLStreamConstants.START_ELEMENT ⇒
+            path = reader.getLocalName :: path
+            text.setLength(0)
+          case XMLStreamConstants.CHARACTERS | XMLStreamConstants.CDATA ⇒
+            text.appendAll(reader.getTextCharacters, reader.getTextStart, reader.getTextLength)
+          case XMLStreamConstants.END_ELEMENT ⇒
+            path match {
+              case List("artifactId", "project") ⇒ pom = pom.copy(artifactId = text.toString.trim)
+              case List("version", "project") ⇒ pom = pom.copy(version = text.toString.trim)
+              case List("version", "parent", "project") ⇒ pom = pom.copy(parentVersion = text.toString.trim)
+              case List("requirejs", "properties", "project") ⇒ pom = pom.copy(requireJs = Some(text.toString))
+              case _ ⇒
+            }
+            path = path.drop(1)
+            text.setLength(0)
+          case _ ⇒
+        }
+      }
+      pom
+    } finally {
+      reader.close()
     }
+  }
+
+  private def requireJsConfig(artifact: String, version: String, rawConfig: String): Option[String] = {
 
     def adjustPaths(rawConfig: String): String = {
       val tree = mapper.reader().readTree(rawConfig)
@@ -82,6 +115,6 @@ object Webjar {
       sw.toString
     }
 
-    readConfig.map(adjustPaths(_)).filterNot(_ == "{}")
+    Some(rawConfig).filterNot(_.trim.isEmpty).map(adjustPaths(_)).filterNot(_ == "{}")
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,123 @@
+package io.spray.osgi.webjars
+
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.util.Properties
+
+import scala.collection.JavaConversions.asScalaSet
+import scala.util.Failure
+import scala.util.Success
+import scala.util.Try
+
+import org.osgi.framework.Bundle
+import org.osgi.framework.BundleContext
+
+import akka.event.LoggingAdapter
+
+/**
+ * Webjar metadata extracted from bundle POMs, persisted in the data area of the webjars bundle,
+ * so that restarting the framework does not require parsing the POMs again.
+ *
+ * Entries are keyed by bundle id, and are valid as long as the last modification time of the
+ * bundle does not change.
+ *
+ * @param ctx context of the webjars bundle.
+ * @param log logger.
+ */
+class WebjarMetadataCache(ctx: BundleContext, log: LoggingAdapter) {
+  import WebjarMetadataCache._
+
+  /** The cache file, `None` when the framework does not provide file system support. */
+  private val file = Option(ctx.getDataFile(FileName))
+
+  /** Cached metadata. Guarded by `this`. */
+  private val properties = new Properties
+
+  /** Whether the properties changed since they were loaded. Guarded by `this`. */
+  private var dirty = false
+
+  file.filter(_.isFile).foreach { f ⇒
+    try {
+      val is = new FileInputStream(f)
+      try { properties.load(is) } finally { is.close() }
+    } catch {
+      case e: IOException ⇒ log.warning(s"failed to read webjar metadata cache $f: $e")
+    }
+  }
+
+  /**
+   * Returns the webjar of the given bundle, loading its metadata from the POM only if the cache
+   * holds no valid entry for it.
+   */
+  def load(bundle: Bundle): Option[Webjar] =
+    cached(bundle).orElse {
+      val webjar = Webjar.load(bundle)
+      webjar.foreach(put)
+      webjar
+    }
+
+  private def cached(bundle: Bundle): Option[Webjar] = synchronized {
+    val key = bundle.getBundleId.toString
+    Option(properties.getProperty(s"$key.$LastModified")).filter(_ == bundle.getLastModified.toString).map { _ ⇒
+      Webjar(properties.getProperty(s"$key.$Artifact"), properties.getProperty(s"$key.$Version"),
+        Option(properties.getProperty(s"$key.$RequireJs")), bundle)
+    }
+  }
+
+  private def put(webjar: Webjar): Unit = synchronized {
+    val key = webjar.bundle.getBundleId.toString
+    properties.setProperty(s"$key.$LastModified", webjar.bundle.getLastModified.toString)
+    properties.setProperty(s"$key.$Artifact", webjar.artifact)
+    properties.setProperty(s"$key.$Version", webjar.version)
+    webjar.requireJsConfig match {
+      case Some(config) ⇒ properties.setProperty(s"$key.$RequireJs", config)
+      case None ⇒ properties.remove(s"$key.$RequireJs")
+    }
+    dirty = true
+  }
+
+  /**
+   * Writes the cache file, dropping the entries of uninstalled bundles. The file is written to a
+   * temporary file first, so that a crash does not leave a partially written cache behind.
+   */
+  def save(): Unit = synchronized {
+    val stale = properties.stringPropertyNames.filter(isStale)
+    stale.foreach(name ⇒ properties.remove(name))
+    if (dirty || stale.nonEmpty) file.foreach { f ⇒
+      val tmp = new File(f.getPath + ".tmp")
+      try {
+        val os = new FileOutputStream(tmp)
+        try { properties.store(os, "webjar metadata") } finally { os.close() }
+        if (!tmp.renameTo(f)) {
+          f.delete()
+          tmp.renameTo(f)
+        }
+        dirty = false
+      } catch {
+        case e: IOException ⇒ log.warning(s"failed to write webjar metadata cache $f: $e")
+      }
+    }
+  }
+
+  private def isStale(name: String): Boolean =
+    Try(name.substring(0, name.indexOf('.')).toLong) match {
+      // the context is no longer valid when saving after the bundle was stopped
+      case Success(id) ⇒ Try(ctx.getBundle(id) == null).getOrElse(false)
+      case Failure(_) ⇒ true
+    }
+}
+
+object WebjarMetadataCache {
+
+  private val FileName = "webjars.properties"
+
+  private val LastModified = "lastModified"
+
+  private val Artifact = "artifact"
+
+  private val Version = "version"
+
+  private val RequireJs = "requirejs"
+}
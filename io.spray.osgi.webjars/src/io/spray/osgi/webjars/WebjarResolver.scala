@@ -0,0 +1,38 @@
+package io.spray.osgi.webjars
+
+import spray.http.Uri.Path
+import spray.routing.Route
+
+/**
+ * Resolves `/webjars/...` requests to the route serving them with a fixed number of map lookups,
+ * instead of offering each request to the routes of all webjars in turn.
+ *
+ * `/webjars/<artifact>/<version>/...` is served by the webjar providing the given version of the
+ * artifact, and `/webjars/<file>` by the shorthand route of the file name, if any. Other requests
+ * are rejected.
+ *
+ * Each webjar bundle is served by its own instance, registered with the route manager under the
+ * prefixes of the versions and shorthands the bundle serves.
+ *
+ * @param artifacts routes serving the resources of the webjars, by artifact and version.
+ * @param shorthands routes serving the files available by file name, by file name.
+ */
+class WebjarResolver(artifacts: Map[String, Map[String, Route]], shorthands: Map[String, Route]) {
+
+  def route: Route = { ctx ⇒
+    resolve(ctx.unmatchedPath) match {
+      case Some(route) ⇒ route(ctx)
+      case None ⇒ ctx.reject()
+    }
+  }
+
+  private def resolve(path: Path): Option[Route] = path match {
+    case Path.Slash(Path.Segment("webjars", Path.Slash(Path.Segment(name, rest)))) ⇒
+      rest match {
+        case Path.Empty ⇒ shorthands.get(name)
+        case Path.Slash(Path.Segment(version, Path.Slash(_))) ⇒ artifacts.get(name).flatMap(_.get(version))
+        case _ ⇒ None
+      }
+    case _ ⇒ None
+  }
+}
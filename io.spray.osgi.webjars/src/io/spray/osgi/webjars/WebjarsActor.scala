@@ -13,108 +13,228 @@ import org.osgi.service.component.annotations.Deactivate
 import org.osgi.service.component.annotations.Reference
 
 import akka.actor.Actor
+import akka.actor.ActorLogging
 import akka.actor.ActorRef
 import akka.actor.ActorSystem
 import akka.actor.PoisonPill
 import akka.actor.Props
 import akka.actor.actorRef2Scala
+import spray.http.CacheDirective
+import spray.http.CacheDirectives.`max-age`
+import spray.http.CacheDirectives.public
+import spray.http.ContentType
+import spray.http.HttpCharsets.`UTF-8`
+import spray.http.HttpEntity
+import spray.http.HttpHeaders.`Cache-Control`
 import spray.http.MediaTypes._
 import spray.httpx.marshalling.ToResponseMarshallable.isMarshallable
 import spray.osgi.RouteManager
 import spray.osgi.RouteManager.RouteAdded
+import spray.osgi.RouteManager.RouteBatch
+import spray.osgi.RouteManager.RouteChange
 import spray.osgi.RouteManager.RouteRemoved
 import spray.routing.Directive.pimpApply
 import spray.routing.Directives.complete
 import spray.routing.Directives.path
-import spray.routing.Directives.respondWithMediaType
+import spray.routing.Directives.respondWithHeader
 import spray.routing.PathMatcher.segmentStringToPathMatcher
 import spray.routing.Route
-import spray.routing.RouteConcatenation.pimpRouteWithConcatenation
 
 object WebjarsActor {
+  val ConfigPath = "webjars/requirejsConfig.js"
+
+  /**
+   * Resources under `/webjars/<artifact>/<version>/` never change, so clients may cache
+   * them for a year without revalidation.
+   */
+  val ImmutableCacheControl = `Cache-Control`(public, `max-age`(31536000), CacheDirective.custom("immutable", None))
+
+  /** Names under `/webjars/` served by generated resources, not available as shorthands. */
+  val ReservedNames = Set("requirejsConfig.js", "bundle.js")
+
+  /**
+   * @param webjar the webjar.
+   * @param versions names of the version directories of the webjar.
+   * @param route route serving the resources of the webjar.
+   * @param shorthands routes serving the scripts of the webjar under `/webjars/<file>`, by file
+   * name. Only the requirejs webjar provides shorthands.
+   */
+  case class WebjarResources(webjar: Webjar, versions: Seq[String], route: Route, shorthands: Map[String, Route])
+
   case class WebjarAdded(webjar: Webjar)
   case class WebjarRemoved(webjar: Webjar)
 }
 
-class WebjarsActor(routeManager: RouteManager) extends Actor {
+/**
+ * @param routeManager route manager of the Spray server.
+ * @param namedBundles module lists served concatenated by name, see [[ModuleBundles]].
+ */
+class WebjarsActor(routeManager: RouteManager, namedBundles: Map[String, Seq[String]]) extends Actor with ActorLogging {
   import WebjarsActor._
 
   var rjsWebjars: Set[Webjar] = Set()
 
-  var resourceRoutes: Map[Bundle, Route] = Map()
+  var webjars: Map[String, Webjar] = Map()
+
+  var resources: Map[Bundle, WebjarResources] = Map()
+
+  /** Routes of the webjar bundles, as registered with the route manager. */
+  var registered: Map[Bundle, RouteAdded] = Map()
 
   val configRoute: AtomicReference[Option[Route]] = new AtomicReference(None)
 
-  val shorthandRoute: AtomicReference[Option[Route]] = new AtomicReference(None)
+  val bundlesRoute: AtomicReference[Option[Route]] = new AtomicReference(None)
 
+  // all route changes caused by a webjar are sent in a single batch, so that requests never see
+  // the webjar's resources without the matching requirejs configuration
   def receive = {
     case WebjarAdded(w) ⇒
-      val r = makeResourcesRoute(w.bundle)
-      resourceRoutes += w.bundle → r
-      routeManager.ref ! RouteAdded(r)
+      val shorthands = if (w.artifact == "requirejs") makeShorthands(w.bundle) else Map[String, Route]()
+      val added = WebjarResources(w, versions(w), makeResourcesRoute(w.bundle), shorthands)
+      reportDuplicates(added)
+      resources += w.bundle → added
+      webjars += w.artifact → w
 
-      w match {
-        case Webjar("requirejs", _, _, bundle) ⇒
-          updateRoute(Some(makeShorthandRoute(bundle)), shorthandRoute)
+      val updated = w match {
         case Webjar(_, _, Some(_), _) ⇒
           rjsWebjars += w
-          updateRoute(makeConfigRoute(rjsWebjars), configRoute)
+          updateRoute(makeConfigRoute(rjsWebjars), configRoute, ConfigPath)
+        case _ ⇒
+          Nil
       }
+      routeManager.ref ! RouteBatch(updated ++ updateWebjarRoutes())
 
     case WebjarRemoved(w) ⇒
-      resourceRoutes.get(w.bundle).foreach(r ⇒ routeManager.ref ! RouteRemoved(r))
-      resourceRoutes -= w.bundle
+      resources -= w.bundle
+      if (webjars.get(w.artifact) == Some(w))
+        webjars -= w.artifact
 
-      w match {
-        case Webjar("requirejs", _, _, _) ⇒
-          updateRoute(None, shorthandRoute)
+      val updated = w match {
         case Webjar(_, _, Some(_), _) ⇒
           rjsWebjars -= w
-          updateRoute(makeConfigRoute(rjsWebjars), configRoute)
+          updateRoute(makeConfigRoute(rjsWebjars), configRoute, ConfigPath)
+        case _ ⇒
+          Nil
       }
+      routeManager.ref ! RouteBatch(updated ++ updateWebjarRoutes())
+  }
+
+  /**
+   * Replaces the routes of the webjar bundles whose served prefixes changed, and the module
+   * bundles route, reflecting the current set of webjars.
+   *
+   * Each webjar bundle has a single route, registered under the prefixes of the versions and
+   * shorthands it serves, so requests are resolved by the route index and reported in the route
+   * metrics per bundle.
+   */
+  def updateWebjarRoutes(): Seq[RouteChange] = {
+    val served = servedPrefixes
+    val changed = (registered.keySet ++ served.keySet).toSeq.filter { bundle ⇒
+      registered.get(bundle).map(_.prefixes.toSet) != served.get(bundle)
+    }
+    val webjarChanges = changed.flatMap { bundle ⇒
+      val removed = registered.get(bundle).map(r ⇒ RouteRemoved(r.route))
+      val added = served.get(bundle).map { prefixes ⇒
+        val r = resources(bundle)
+        val resolver = new WebjarResolver(Map(r.webjar.artifact → r.versions.map(_ → r.route).toMap), r.shorthands)
+        RouteAdded(resolver.route, prefixes.toSeq.sorted, name = Some(s"${bundle.getSymbolicName}/webjar"))
+      }
+      registered = added.fold(registered - bundle)(a ⇒ registered + (bundle → a))
+      removed.toSeq ++ added
+    }
+    webjarChanges ++ updateRoute(makeBundlesRoute(webjars), bundlesRoute, ModuleBundles.BundlePath)
+  }
+
+  /**
+   * Prefixes of the requests served by each webjar bundle. When several bundles provide the same
+   * version of an artifact, or the same shorthand, the one with the lowest bundle id is used.
+   */
+  def servedPrefixes: Map[Bundle, Set[String]] = {
+    val provided = resources.values.toSeq.sortBy(-_.webjar.bundle.getBundleId).flatMap { r ⇒
+      r.versions.map(v ⇒ s"webjars/${r.webjar.artifact}/$v" → r.webjar.bundle) ++
+        r.shorthands.keys.map(file ⇒ s"webjars/$file" → r.webjar.bundle)
+    }
+    provided.toMap.groupBy(_._2).map {
+      case (bundle, prefixes) ⇒ bundle → prefixes.keySet
+    }
   }
 
+  /**
+   * Names of the version directories of a webjar.
+   */
+  def versions(webjar: Webjar): Seq[String] =
+    Option(webjar.bundle.getEntryPaths(s"META-INF/resources/webjars/${webjar.artifact}/")).map(_.toList).getOrElse(Nil).collect {
+      case p if p.endsWith("/") ⇒
+        val dir = p.stripSuffix("/")
+        dir.substring(dir.lastIndexOf('/') + 1)
+    }
+
+  def reportDuplicates(added: WebjarResources): Unit =
+    for {
+      existing ← resources.values
+      if existing.webjar.artifact == added.webjar.artifact
+      version ← existing.versions.intersect(added.versions)
+    } log.warning(s"webjar ${added.webjar.artifact} $version is provided by bundles ${existing.webjar.bundle.getSymbolicName} [${existing.webjar.bundle.getBundleId}] and ${added.webjar.bundle.getSymbolicName} [${added.webjar.bundle.getBundleId}]")
+
   def makeResourcesRoute(bundle: Bundle): Route = {
-    val basePath = "META-INF/resources"
-    val baseURI = bundle.getEntry(basePath).toURI
-    val URIs = bundle.findEntries(basePath, "*", true).map(_.toURI).toSeq
-    val paths = URIs.map(baseURI.relativize(_).toString)
-    routeManager.getBundleResources(bundle, paths, basePath)
+    respondWithHeader(ImmutableCacheControl) {
+      routeManager.getBundleDirectory(bundle, "META-INF/resources", None)
+    }
   }
 
-  def makeShorthandRoute(bundle: Bundle): Route = {
-    val urls = bundle.findEntries("/META-INF/resources", "*.js", true)
-    urls.map { url ⇒
-      val file = url.getPath.split("/").toSeq.reverse.head
-      path("webjars" / file) {
-        routeManager.getBundleResource(bundle, url.getPath)
-      }
-    }.reduceRight(_ ~ _)
+  /**
+   * Routes serving the scripts of the requirejs webjar under `/webjars/<file>`. Scripts sharing a
+   * file name are reported, and the first one in path order is served. Names of the routes served
+   * by this actor are reserved.
+   */
+  def makeShorthands(bundle: Bundle): Map[String, Route] = {
+    val urls = Option(bundle.findEntries("/META-INF/resources", "*.js", true)).map(_.toList).getOrElse(Nil).sortBy(_.getPath)
+    urls.groupBy(url ⇒ url.getPath.substring(url.getPath.lastIndexOf('/') + 1)).flatMap {
+      case (file, _) if ReservedNames(file) ⇒
+        log.warning(s"shorthand webjars/$file of ${bundle.getSymbolicName} conflicts with a generated resource, ignoring")
+        None
+      case (file, same) ⇒
+        if (same.size > 1)
+          log.warning(s"ambiguous shorthand webjars/$file, provided by ${same.map(_.getPath).mkString(", ")}, using ${same.head.getPath}")
+        Some(file → routeManager.getBundleResource(bundle, same.head.getPath))
+    }
   }
 
+  /**
+   * The configuration is rendered once, when the set of webjars changes.
+   */
   def makeConfigRoute(webjars: Set[Webjar]): Option[Route] = {
     if (webjars.isEmpty) {
       None
     } else {
       val conf = webjars.toSeq.sortBy(_.artifact).flatMap(_.requireJsConfig)
+      val body = HttpEntity(ContentType(`application/javascript`, `UTF-8`),
+        s"""
+          |var require = {
+          |  callback : function() {
+          |${conf.map(c ⇒ s"    requirejs.config($c);").mkString("\n")}
+          |  }
+          |};
+        """.stripMargin.trim)
       Some(path("webjars" / "requirejsConfig.js") {
-        respondWithMediaType(`application/javascript`) {
-          complete {
-            s"""
-              |var require = {
-              |  callback : function() {
-              |${conf.map(c ⇒ s"    requirejs.config($c);").mkString("\n")}
-              |  }
-              |};
-            """.stripMargin.trim
-          }
-        }
+        complete(body)
       })
     }
   }
 
-  def updateRoute(newRoute: Option[Route], routeRef: AtomicReference[Option[Route]]) = {
-    routeRef.getAndSet(newRoute).foreach(routeManager.ref ! RouteRemoved(_))
-    newRoute.foreach(routeManager.ref ! RouteAdded(_))
+  /**
+   * Concatenations of the modules are computed anew, on demand, whenever the set of webjars changes.
+   */
+  def makeBundlesRoute(webjars: Map[String, Webjar]): Option[Route] =
+    if (webjars.isEmpty) None
+    else Some(new ModuleBundles(routeManager, webjars.mapValues(w ⇒ resources(w.bundle)).toMap, namedBundles).route)
+
+  /**
+   * Replaces the route held in the reference, returning the route changes to be sent.
+   */
+  def updateRoute(newRoute: Option[Route], routeRef: AtomicReference[Option[Route]], prefix: String): Seq[RouteChange] = {
+    val removed = routeRef.getAndSet(newRoute).map(RouteRemoved(_))
+    val added = newRoute.map(RouteAdded(_, Seq(prefix)))
+    removed.toSeq ++ added
   }
 }
@@ -19,9 +19,16 @@ import akka.actor.ActorRef
 import akka.actor.ActorSystem
 import akka.actor.Props
 import akka.actor.PoisonPill
+import akka.event.Logging
 import spray.osgi.RouteManager
 import spray.routing.Route
 
+/**
+ * Serves the resources of webjar bundles.
+ *
+ * Module lists served concatenated from `/webjars/bundle.js?name=<name>` are configured with
+ * properties of the form `bundle.<name> = <artifact>/<path>, ...`, see [[ModuleBundles]].
+ */
 @Component
 class WebjarsComponent {
 
@@ -35,19 +42,41 @@ class WebjarsComponent {
 
   var tracker: WebjarBundleTracker = _
 
+  var metadataCache: WebjarMetadataCache = _
+
   @Activate
   def activate(ctx: BundleContext, properties: java.util.Map[String, _]): Unit = {
-    webjarsActor = actorSystem.actorOf(Props(classOf[WebjarsActor], routeManager))
+    webjarsActor = actorSystem.actorOf(Props(classOf[WebjarsActor], routeManager, namedBundles(properties)))
+    metadataCache = new WebjarMetadataCache(ctx, Logging(actorSystem, getClass))
     tracker = new WebjarBundleTracker(ctx)
     tracker.open()
+    // persist the metadata of the webjars found on startup once they are loaded
+    val cache = metadataCache
+    routeManager.scanQueue.enqueue {
+      cache.save()
+    }
   }
 
   @Deactivate
   def deactivate: Unit = {
     tracker.close()
-    webjarsActor ! PoisonPill
+    // stop the actor only after the removals queued by closing the tracker were delivered
+    val actor = webjarsActor
+    val cache = metadataCache
+    routeManager.scanQueue.enqueue {
+      actor ! PoisonPill
+      cache.save()
+    }
   }
 
+  private def namedBundles(properties: java.util.Map[String, _]): Map[String, Seq[String]] =
+    properties.toMap.collect {
+      case (key, modules: String) if key.startsWith(BundlePrefix) ⇒
+        key.stripPrefix(BundlePrefix) → modules.split(',').map(_.trim).filter(_.nonEmpty).toSeq
+    }
+
+  private val BundlePrefix = "bundle."
+
   import WebjarsActor._
 
   def register(webjar: Webjar): Unit = {
@@ -58,24 +87,33 @@ class WebjarsComponent {
     webjarsActor ! WebjarRemoved(webjar)
   }
 
+  /**
+   * Tracks webjar bundles. POM files are parsed on the route manager's scan queue, off the
+   * framework's event thread, unless the metadata of the bundle are cached.
+   */
   class WebjarBundleTracker(ctx: BundleContext)
     extends BundleTracker[AtomicReference[Option[Webjar]]](ctx, Bundle.ACTIVE, null) {
 
     override def addingBundle(bundle: Bundle, event: BundleEvent): AtomicReference[Option[Webjar]] = {
-      new AtomicReference(Webjar.load(bundle).map { w ⇒
-        register(w)
-        w
-      })
+      val webjarRef = new AtomicReference[Option[Webjar]](None)
+      load(bundle, webjarRef)
+      webjarRef
     }
 
     override def removedBundle(bundle: Bundle, event: BundleEvent, webjarRef: AtomicReference[Option[Webjar]]): Unit = {
-      webjarRef.get.foreach(w ⇒ unregister(w))
+      routeManager.scanQueue.enqueue {
+        webjarRef.getAndSet(None).foreach(w ⇒ unregister(w))
+      }
     }
 
     override def modifiedBundle(bundle: Bundle, event: BundleEvent, webjarRef: AtomicReference[Option[Webjar]]): Unit = {
-      val newWebjar = Webjar.load(bundle)
-      webjarRef.getAndSet(newWebjar).foreach(unregister(_))
-      newWebjar.foreach(register(_))
+      load(bundle, webjarRef)
     }
+
+    private def load(bundle: Bundle, webjarRef: AtomicReference[Option[Webjar]]): Unit =
+      routeManager.scanQueue.submit(bundle)(metadataCache.load(bundle)) { newWebjar ⇒
+        webjarRef.getAndSet(newWebjar).foreach(unregister(_))
+        newWebjar.foreach(register(_))
+      }
   }
 }
\ No newline at end of file
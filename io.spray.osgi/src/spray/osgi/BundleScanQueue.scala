@@ -0,0 +1,135 @@
+package spray.osgi
+
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+import scala.concurrent.Await
+import scala.concurrent.ExecutionContext
+import scala.concurrent.Future
+import scala.concurrent.duration.FiniteDuration
+import scala.util.Try
+import scala.util.control.NonFatal
+
+import org.osgi.framework.Bundle
+
+import akka.event.LoggingAdapter
+
+/**
+ * Runs bundle scans on a bounded pool of worker threads, off the framework's event thread.
+ *
+ * <p>Scans run in parallel, but their results are published in the order the scans were
+ * submitted, so that a tracker observes additions and removals of a bundle in the order the
+ * framework reported them. The time spent scanning each bundle is logged.</p>
+ *
+ * @param name name of the queue, used for naming worker threads and in log messages.
+ * @param parallelism maximum number of concurrently running scans.
+ * @param log logger.
+ */
+class BundleScanQueue(name: String, parallelism: Int, log: LoggingAdapter) {
+
+  private val executor = new ThreadPoolExecutor(parallelism, parallelism, 0L, TimeUnit.MILLISECONDS,
+    new LinkedBlockingQueue[Runnable], new ThreadFactory {
+      private val count = new AtomicInteger
+      def newThread(r: Runnable): Thread = {
+        val thread = new Thread(r, s"$name-${count.incrementAndGet()}")
+        thread.setDaemon(true)
+        thread
+      }
+    })
+
+  private implicit val executionContext = ExecutionContext.fromExecutorService(executor)
+
+  /** Completes when all tasks submitted so far have been published. Guarded by `this`. */
+  private var tail: Future[Unit] = Future.successful(())
+
+  /** Set when the queue is shut down. Guarded by `this`. */
+  private var closed = false
+
+  /**
+   * Scans a bundle on a worker thread, and publishes the result once all previously submitted
+   * results have been published.
+   *
+   * @param bundle the scanned bundle.
+   * @param scan the scan, run on a worker thread.
+   * @param publish action publishing the scan result.
+   * @return the result of the scan, completed after it was published.
+   */
+  def submit[T](bundle: Bundle)(scan: ⇒ T)(publish: T ⇒ Unit): Future[T] =
+    chain(s"scan of ${bundle.getSymbolicName} [${bundle.getBundleId}]") {
+      Future {
+        val start = System.nanoTime
+        val result = scan
+        log.info(s"scanned bundle ${bundle.getSymbolicName} [${bundle.getBundleId}] in ${(System.nanoTime - start) / 1000000} ms")
+        result
+      }
+    }(publish)
+
+  /**
+   * Runs an action once all previously submitted results have been published. Once the queue is
+   * shut down, the action is run on the calling thread, so that cleanup actions are never lost.
+   */
+  def enqueue(action: ⇒ Unit): Future[Unit] = {
+    val inline = synchronized { closed }
+    if (inline)
+      Future.fromTry(Try(action))
+    else
+      chain("queued action")(Future.successful(()))(_ ⇒ action)
+  }
+
+  private def chain[T](description: String)(scanned: ⇒ Future[T])(publish: T ⇒ Unit): Future[T] =
+    synchronized {
+      try {
+        if (closed)
+          throw new RejectedExecutionException
+        val result = scanned
+        val published = tail.flatMap(_ ⇒ result).map { r ⇒
+          publish(r)
+          r
+        }
+        tail = published.map(_ ⇒ ()).recover {
+          case NonFatal(e) ⇒ log.error(e, s"$name: $description failed")
+        }
+        published
+      } catch {
+        case e: RejectedExecutionException ⇒
+          log.warning(s"$name: $description rejected, queue is shut down")
+          Future.failed(e)
+      }
+    }
+
+  /**
+   * Changes the maximum number of concurrently running scans. Running scans are not interrupted.
+   */
+  def setParallelism(parallelism: Int): Unit =
+    if (parallelism > executor.getMaximumPoolSize) {
+      executor.setMaximumPoolSize(parallelism)
+      executor.setCorePoolSize(parallelism)
+    } else {
+      executor.setCorePoolSize(parallelism)
+      executor.setMaximumPoolSize(parallelism)
+    }
+
+  /**
+   * Waits for the submitted tasks to complete, and stops the worker threads. Scans submitted
+   * afterwards are rejected, actions enqueued afterwards are run on the calling thread.
+   *
+   * @param timeout maximum time to wait for the submitted tasks.
+   */
+  def shutdown(timeout: FiniteDuration): Unit = {
+    val pending = synchronized {
+      closed = true
+      tail
+    }
+    try {
+      Await.ready(pending, timeout)
+    } catch {
+      case NonFatal(e) ⇒ log.warning(s"$name: pending tasks did not complete within $timeout")
+    } finally {
+      executor.shutdown()
+    }
+  }
+}
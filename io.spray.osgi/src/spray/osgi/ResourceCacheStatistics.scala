@@ -0,0 +1,27 @@
+package spray.osgi
+
+/**
+ * An OSGi service exposing statistics of the in-memory cache of static resources served from
+ * bundles.
+ *
+ * <p>The cache is disabled by default, and can be enabled with
+ * {@code spray.can.resources.cache.enabled} setting.</p>
+ */
+trait ResourceCacheStatistics {
+
+  /** Number of requests served from the cache. */
+  def hits: Long
+
+  /** Number of requests for resources not present in the cache. */
+  def misses: Long
+
+  /** Number of entries evicted from the cache to stay within the size limit. */
+  def evictions: Long
+
+  /** Number of entries currently present in the cache. */
+  def entries: Int
+
+  /** Total size of the resources currently present in the cache, in bytes. */
+  def bytes: Long
+
+}
@@ -0,0 +1,30 @@
+package spray.osgi
+
+/**
+ * An OSGi service exposing statistics of the thread pool reading static resources from bundles.
+ *
+ * <p>The size of the pool and the number of reads that may wait for a thread are configured with
+ * {@code spray.can.resources.io} settings. Requests arriving when the pool is saturated are
+ * answered with {@code 503 Service Unavailable}.</p>
+ */
+trait ResourceIoStatistics {
+
+  /** Number of threads currently reading resources. */
+  def activeThreads: Int
+
+  /** Number of reads waiting for a thread. */
+  def queuedReads: Int
+
+  /** Number of reads completed. */
+  def completedReads: Long
+
+  /** Number of requests rejected because the pool was saturated. */
+  def rejectedReads: Long
+
+  /** Mean time the completed reads waited for a thread, in microseconds. */
+  def meanQueueTimeMicros: Long
+
+  /** Longest time a read waited for a thread, in microseconds. */
+  def maxQueueTimeMicros: Long
+
+}
@@ -17,9 +17,39 @@ trait RouteManager {
    */
   def ref: ActorRef
 
+  /**
+   * Queue for scanning bundles for web resources off the framework's event thread.
+   *
+   * <p>Scans submitted by all trackers share a single worker pool, and their results are published
+   * in submission order.</p>
+   */
+  def scanQueue: BundleScanQueue
+
   def getBundleResource(bundle: Bundle, path: String): Route
 
   def getBundleResources(bundle: Bundle, paths: Seq[String], resBasePath: String): Route
+
+  /**
+   * Returns a route serving all resources in a directory of a bundle.
+   *
+   * <p>Request paths are matched against resource paths relative to {@code basePath}. The
+   * directory is scanned when the first request arrives, and each request is resolved with a single
+   * lookup.</p>
+   *
+   * @param bundle the bundle.
+   * @param basePath the directory within the bundle.
+   * @param welcomeFile name of the file served for requests of a directory.
+   */
+  def getBundleDirectory(bundle: Bundle, basePath: String, welcomeFile: Option[String]): Route
+
+  /**
+   * Returns a route running the given route on the pool that reads static resources, for routes
+   * generating their responses with blocking I/O.
+   *
+   * <p>When the pool is saturated, requests are completed with {@code 503 Service Unavailable}
+   * right away. Exceptions thrown by the route fail the request.</p>
+   */
+  def detachedIo(route: Route): Route
 }
 
 /**
@@ -33,10 +63,38 @@ object RouteManager {
   /** Base trait of messages understood by {@code RouteManager} */
   sealed trait Message
 
-  /** Sent when a Route is added to server configuration. */
-  case class RouteAdded(route: Route) extends Message
+  /**
+   * Sent when a Route is added to server configuration.
+   *
+   * <p>Routes may declare the leading path prefixes of the requests they handle, using {@code /}
+   * as segment separator, for example {@code webjars/jquery}. An empty string denotes the server
+   * root. Requests are only dispatched to the routes whose prefix matches the request path, and to
+   * the routes that declared no prefixes at all. Prefixes are matched on whole path segments.</p>
+   *
+   * <p>Routes with higher {@code ranking} take precedence, routes with equal ranking are tried in
+   * the order they were added.</p>
+   *
+   * <p>Routes with a {@code name} are instrumented, and their statistics are reported by the
+   * {@link RouteMetrics} service under that name.</p>
+   */
+  case class RouteAdded(route: Route, prefixes: Seq[String] = Nil, ranking: Int = 0, name: Option[String] = None) extends RouteChange
 
   /** Sent when a Route is removed from server configuration. */
-  case class RouteRemoved(route: Route) extends Message
+  case class RouteRemoved(route: Route) extends RouteChange
+
+  /** Base trait of messages changing the server configuration. */
+  sealed trait RouteChange extends Message
+
+  /**
+   * Sent to apply a number of changes to the server configuration atomically.
+   *
+   * <p>Changes are applied in order, and requests are never dispatched with only a part of the
+   * changes applied. Replacing a route should be done by sending {@code RouteRemoved} of the old
+   * route and {@code RouteAdded} of the new one in a single batch.</p>
+   *
+   * <p>Changes received in a burst, whether batched or not, are coalesced into a single update of
+   * the dispatch configuration.</p>
+   */
+  case class RouteBatch(changes: Seq[RouteChange]) extends Message
 
 }
\ No newline at end of file
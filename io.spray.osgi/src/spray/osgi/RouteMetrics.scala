@@ -0,0 +1,38 @@
+package spray.osgi
+
+/**
+ * An OSGi service reporting request handling statistics of the routes served by Spray server.
+ *
+ * <p>Statistics are kept for the routes added with a name, see {@link RouteManager.RouteAdded}.
+ * Routes provided by {@link RouteProvider} services are named after the providing bundle and the
+ * service id, static resources after the bundle containing them.</p>
+ */
+trait RouteMetrics {
+
+  /** Returns current statistics of all instrumented routes, by route name. */
+  def snapshot: Map[String, RouteMetrics.Stats]
+}
+
+object RouteMetrics {
+
+  /**
+   * Request handling statistics of a route. Latencies are measured from dispatching the request to
+   * the route until the start of the response, in microseconds, with a relative error below 13%.
+   *
+   * @param requests number of requests completed by the route.
+   * @param inFlight number of requests currently being handled by the route.
+   * @param statusCounts number of responses by status code.
+   * @param p50 median latency.
+   * @param p99 99th percentile of latency.
+   * @param p999 99.9th percentile of latency.
+   * @param max maximum latency.
+   */
+  case class Stats(
+    requests: Long,
+    inFlight: Long,
+    statusCounts: Map[Int, Long],
+    p50: Long,
+    p99: Long,
+    p999: Long,
+    max: Long)
+}
@@ -8,10 +8,24 @@ import spray.routing.Route
  * <p>Spray server Declarative Services component is tracking services of this type and adjusts the
  * configuration appropriately. {@link org.osgi.framework.Constants.SERVICE_RANKING} service property
  * values will be used for order of precedence of available routes.</p>
+ *
+ * <p>Providers should declare the leading path prefixes of the requests their route handles with
+ * {@link RouteProvider.PathPrefix} service property, so that unrelated requests are not
+ * dispatched to it. Providers without the property are offered every request.</p>
  */
 trait RouteProvider {
 
   /** Returns a route definition */
   def route: Route
 
+}
+
+object RouteProvider {
+
+  /**
+   * Service property holding leading path prefixes ({@code String} or {@code String[]}) of the
+   * requests handled by the provided route. See {@link RouteManager.RouteAdded} for the syntax.
+   */
+  final val PathPrefix = "spray.route.prefix"
+
 }
\ No newline at end of file
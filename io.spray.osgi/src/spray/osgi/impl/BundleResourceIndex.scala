@@ -0,0 +1,131 @@
+package spray.osgi.impl
+
+import java.net.URI
+import java.net.URISyntaxException
+
+import scala.annotation.tailrec
+import scala.collection.JavaConversions.enumerationAsScalaIterator
+
+import org.osgi.framework.Bundle
+
+import spray.http.Uri.Path
+
+/**
+ * Index of the static resources in a directory of a bundle, mapping request paths to bundle
+ * entry names.
+ *
+ * The index is built on first lookup, so registering a bundle with many entries is cheap, and
+ * each request is resolved with a single hash lookup regardless of the number of entries.
+ * When a welcome file name is given, requests for a directory, with or without a trailing
+ * slash, resolve to the welcome file in that directory. Metadata of the resources is likewise
+ * computed on first request of each resource.
+ *
+ * @param bundle the bundle.
+ * @param basePath the directory within the bundle, mapped to the root of request paths.
+ * @param welcomeFile name of the file served for directory requests.
+ * @param paths the paths of resources relative to `basePath`, evaluated on first lookup.
+ */
+class BundleResourceIndex private (val bundle: Bundle, basePath: String, welcomeFile: Option[String],
+  paths: ⇒ Iterator[String]) {
+  import BundleResourceIndex._
+
+  /** Request paths mapped to entry names, once built. */
+  @volatile private var built: Map[String, String] = _
+
+  /**
+   * Whether the index has been built, so that lookups perform no I/O.
+   */
+  def isBuilt: Boolean =
+    built != null
+
+  private def entries: Map[String, String] = {
+    val e = built
+    if (e != null) e
+    else synchronized {
+      if (built == null)
+        built = build()
+      built
+    }
+  }
+
+  /** Metadata of the indexed resources. */
+  val manifest = new ResourceManifest.Entries(bundle)
+
+  /**
+   * Returns the name of the bundle entry serving the given request path.
+   */
+  def lookup(path: Path): Option[String] = {
+    val relative = path match {
+      case Path.Slash(tail) ⇒ tail
+      case _ ⇒ path
+    }
+    entries.get(render(relative, new StringBuilder))
+  }
+
+  private def build(): Map[String, String] = {
+    val b = Map.newBuilder[String, String]
+    paths.filterNot(_.endsWith("/")).foreach { p ⇒
+      val name = s"$basePath/$p"
+      b += p → name
+      welcomeFile.foreach { w ⇒
+        val slash = p.lastIndexOf('/')
+        if (p.substring(slash + 1) == w) {
+          val dir = p.substring(0, math.max(slash, 0))
+          b += dir → name
+          if (!dir.isEmpty)
+            b += s"$dir/" → name
+        }
+      }
+    }
+    b.result()
+  }
+}
+
+object BundleResourceIndex {
+
+  /**
+   * Index of all entries under the given directory of the bundle. Entry paths are URI decoded,
+   * like the paths given to `paths`.
+   */
+  def directory(bundle: Bundle, basePath: String, welcomeFile: Option[String]): BundleResourceIndex = {
+    val base = normalize(basePath)
+    new BundleResourceIndex(bundle, base, welcomeFile, Option(bundle.findEntries(base, "*", true)) match {
+      case Some(urls) ⇒
+        val prefix = if (base.isEmpty) "/" else s"/$base/"
+        urls.map(url ⇒ decode(url.getPath)).filter(_.startsWith(prefix)).map(_.substring(prefix.length))
+      case None ⇒
+        Iterator.empty
+    })
+  }
+
+  /**
+   * Index of the given entries. Paths are relative to `basePath` and may be URI encoded.
+   */
+  def paths(bundle: Bundle, basePath: String, paths: Seq[String]): BundleResourceIndex =
+    new BundleResourceIndex(bundle, normalize(basePath), None, paths.iterator.map(decode))
+
+  private def normalize(basePath: String): String =
+    basePath.stripPrefix("/").stripSuffix("/")
+
+  private def decode(path: String): String =
+    try {
+      new URI(path).getPath
+    } catch {
+      case e: URISyntaxException ⇒ path
+    }
+
+  /**
+   * Renders the path with decoded segments.
+   */
+  @tailrec
+  private def render(path: Path, b: StringBuilder): String = path match {
+    case Path.Slash(tail) ⇒
+      b += '/'
+      render(tail, b)
+    case Path.Segment(head, tail) ⇒
+      b ++= head
+      render(tail, b)
+    case _ ⇒
+      b.toString
+  }
+}
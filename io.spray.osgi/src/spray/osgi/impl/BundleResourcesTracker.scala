@@ -14,9 +14,7 @@ import com.typesafe.config.Config
 import akka.actor.ActorRef
 import akka.actor.actorRef2Scala
 import spray.osgi.RouteManager
-import spray.routing.Directives.path
 import spray.routing.Route
-import spray.routing.RouteConcatenation._
 
 class BundleResourcesTracker(ctx: BundleContext, routeManager: SprayServer, config: Config)
   extends BundleTracker[AtomicReference[Option[Route]]](ctx, Bundle.ACTIVE, null) {
@@ -26,47 +24,50 @@ class BundleResourcesTracker(ctx: BundleContext, routeManager: SprayServer, conf
 
   import RouteManager._
 
+  /**
+   * Bundles are scanned on the route manager's scan queue. The returned reference is updated
+   * when the scan result is published.
+   */
   override def addingBundle(bundle: Bundle, event: BundleEvent): AtomicReference[Option[Route]] = {
-    new AtomicReference(makeRoute(bundle).map { route ⇒
-      routeManager.ref ! RouteAdded(route)
-      route
-    })
+    val routeRef = new AtomicReference[Option[Route]](None)
+    scan(bundle, routeRef)
+    routeRef
   }
 
-  override def removedBundle(bundle: Bundle, event: BundleEvent, webjarRef: AtomicReference[Option[Route]]): Unit = {
-    webjarRef.get.foreach(route ⇒ routeManager.ref ! RouteRemoved(route))
+  override def removedBundle(bundle: Bundle, event: BundleEvent, routeRef: AtomicReference[Option[Route]]): Unit = {
+    routeManager.staticResources.invalidate(bundle)
+    routeManager.scanQueue.enqueue {
+      routeRef.getAndSet(None).foreach(route ⇒ routeManager.ref ! RouteRemoved(route))
+    }
   }
 
-  override def modifiedBundle(bundle: Bundle, event: BundleEvent, webjarRef: AtomicReference[Option[Route]]): Unit = {
-    val route = makeRoute(bundle)
-    webjarRef.getAndSet(route).foreach(routeManager.ref ! RouteRemoved(_))
-    route.foreach(routeManager.ref ! RouteAdded(_))
+  override def modifiedBundle(bundle: Bundle, event: BundleEvent, routeRef: AtomicReference[Option[Route]]): Unit = {
+    routeManager.staticResources.invalidate(bundle)
+    scan(bundle, routeRef)
   }
 
-  private def makeRoute(bundle: Bundle): Option[Route] = {
-    Seq(resources(bundle), welcomeFiles(bundle)).flatten.reduceRightOption(_ ~ _)
-  }
+  private def scan(bundle: Bundle, routeRef: AtomicReference[Option[Route]]): Unit =
+    routeManager.scanQueue.submit(bundle)(makeRoute(bundle)) { added ⇒
+      val removed = routeRef.getAndSet(added.map(_.route)).map(RouteRemoved(_))
+      routeManager.ref ! RouteBatch(removed.toSeq ++ added)
+    }
 
-  private def resources(bundle: Bundle): Option[Route] = {
+  private def makeRoute(bundle: Bundle): Option[RouteAdded] = {
     Option(bundle.getEntry(basePath)).map { _ ⇒
-      val baseURI = bundle.getEntry(basePath).toURI
-      val URIs = bundle.findEntries(basePath, "*", true).map(_.toURI).toSeq
-      val paths = URIs.map(baseURI.relativize(_).toString)
-      routeManager.getBundleResources(bundle, paths, basePath)
+      RouteAdded(routeManager.getBundleDirectory(bundle, basePath, Some(welcomeFile)), prefixes(bundle),
+        name = Some(s"${bundle.getSymbolicName}/$basePath"))
     }
   }
 
-  private def welcomeFiles(bundle: Bundle): Option[Route] = {
-    Option(bundle.findEntries(basePath, welcomeFile, true)).flatMap { e ⇒
-      val baseURI = bundle.getEntry(basePath).toURI
-      e.map {
-        u ⇒
-          val p = baseURI.relativize(u.toURI).toString
-          val dir = p.substring(0, math.max(p.lastIndexOf('/'), 0))
-          path(dir) {
-            routeManager.getBundleResource(bundle, s"$basePath/$p")
-          }
-      }.reduceRightOption(_ ~ _)
-    }
+  /**
+   * Names of the top level entries of the resource directory, and the root path if the directory
+   * contains a welcome file.
+   */
+  private def prefixes(bundle: Bundle): Seq[String] = {
+    val entries = Option(bundle.getEntryPaths(basePath)).map(_.map { p ⇒
+      p.substring(p.lastIndexOf('/', p.length - 2) + 1).stripSuffix("/")
+    }.toList).getOrElse(Nil)
+    val root = Option(bundle.getEntry(s"$basePath/$welcomeFile")).map(_ ⇒ "")
+    (entries ++ root).distinct
   }
 }
\ No newline at end of file
@@ -0,0 +1,106 @@
+package spray.osgi.impl
+
+import scala.concurrent.duration.Duration
+
+import akka.actor.Actor
+import akka.actor.ActorLogging
+import akka.actor.ActorRef
+import akka.actor.Props
+import akka.actor.ReceiveTimeout
+import akka.io.Tcp
+import spray.can.Http
+import spray.can.server.ServerSettings
+
+/**
+ * Owns the server socket of the Spray server, and rebinds it when the listener or server
+ * settings change.
+ *
+ * The previous socket is unbound before the new one is bound, as both use the same endpoint.
+ * Connections accepted by the previous socket are not affected by the rebind: they keep their
+ * settings and are allowed to complete within the rebind grace period.
+ *
+ * @param http the Spray HTTP extension manager.
+ * @param handler actor handling the accepted connections.
+ */
+class ListenerActor(http: ActorRef, handler: ActorRef) extends Actor with ActorLogging {
+  import ListenerActor._
+
+  def idle: Receive = {
+    case listen: Listen ⇒
+      bind(listen)
+  }
+
+  /**
+   * @param current settings being bound.
+   * @param next settings received while binding, to be bound once binding completes.
+   */
+  def binding(current: Listen, next: Option[Listen]): Receive = {
+    case Http.Bound(address) ⇒
+      context.setReceiveTimeout(Duration.Undefined)
+      log.info(s"server listening on $address")
+      next match {
+        case Some(listen) ⇒ unbind(sender(), current, listen)
+        case None ⇒ context become bound(sender(), current)
+      }
+    case Tcp.CommandFailed(_: Http.Bind) ⇒
+      context.setReceiveTimeout(Duration.Undefined)
+      log.error("Binding failed. Switch on DEBUG-level logging for `akka.io.TcpListener` to log the cause.")
+      next.fold(context become idle)(bind)
+    case ReceiveTimeout ⇒
+      context.setReceiveTimeout(Duration.Undefined)
+      log.error("server start timeout")
+      next.fold(context become idle)(bind)
+    case listen: Listen ⇒
+      context become binding(current, Some(listen))
+  }
+
+  /**
+   * @param listener actor owning the bound socket.
+   * @param current the bound settings.
+   */
+  def bound(listener: ActorRef, current: Listen): Receive = {
+    case listen: Listen ⇒
+      unbind(listener, current, listen)
+  }
+
+  /**
+   * @param next settings to be bound once the previous socket is unbound.
+   */
+  def unbinding(next: Listen): Receive = {
+    case Http.Unbound ⇒
+      context.setReceiveTimeout(Duration.Undefined)
+      bind(next)
+    case ReceiveTimeout ⇒
+      context.setReceiveTimeout(Duration.Undefined)
+      log.error("server socket unbind timeout")
+      bind(next)
+    case listen: Listen ⇒
+      context become unbinding(listen)
+  }
+
+  private def bind(listen: Listen): Unit = {
+    val Listen(listener, server) = listen
+    http ! Http.Bind(handler, listener.interface, listener.port, listener.backlog, listener.socketOptions, Some(server))
+    context.setReceiveTimeout(listener.bindTimeout)
+    context become binding(listen, None)
+  }
+
+  private def unbind(listener: ActorRef, current: Listen, next: Listen): Unit = {
+    listener ! Http.Unbind(current.listener.rebindGracePeriod)
+    context.setReceiveTimeout(current.listener.unbindTimeout)
+    context become unbinding(next)
+  }
+
+  def receive = idle
+}
+
+object ListenerActor {
+
+  def props(http: ActorRef, handler: ActorRef): Props =
+    Props(new ListenerActor(http, handler))
+
+  /**
+   * Binds the server socket with the given settings, replacing the currently bound one.
+   */
+  case class Listen(listener: ListenerSettings, server: ServerSettings)
+}
@@ -17,6 +17,7 @@ case class ListenerSettings(
   backlog: Int,
   bindTimeout: FiniteDuration,
   unbindTimeout: FiniteDuration,
+  rebindGracePeriod: FiniteDuration,
   socketOptions: immutable.Traversable[Inet.SocketOption] = Nil)
 
 object ListenerSettings {
@@ -32,19 +33,20 @@ object ListenerSettings {
     c getInt "backlog",
     c getDuration "bind-timeout",
     c getDuration "unbind-timeout",
+    c getDuration "rebind-grace-period",
     socketOptions(c))
 
   def socketOptions(c: Config): List[Inet.SocketOption] = {
     val b = ListBuffer[Inet.SocketOption]()
-    if (c.hasPath("socket-config")) {
-      val sc = c.getConfig("socket-config")
+    if (c.hasPath("socket-options")) {
+      val sc = c.getConfig("socket-options")
 
       if (sc.hasPath("receive-buffer-size"))
         b += Inet.SO.ReceiveBufferSize(sc.getInt("receive-buffer-size"))
       if (sc.hasPath("send-buffer-size"))
         b += Inet.SO.SendBufferSize(sc.getInt("send-buffer-size"))
       if (sc.hasPath("traffic-class"))
-        b += Inet.SO.TrafficClass(sc.getInt("trafic-class"))
+        b += Inet.SO.TrafficClass(sc.getInt("traffic-class"))
       if (sc.hasPath("reuse-address"))
         b += Inet.SO.ReuseAddress(sc.getBoolean("reuse-address"))
 
@@ -53,7 +55,7 @@ object ListenerSettings {
       if (sc.hasPath("oob-inline"))
         b += Tcp.SO.OOBInline(sc.getBoolean("oob-inline"))
       if (sc.hasPath("tcp-no-delay"))
-        b += Tcp.SO.OOBInline(sc.getBoolean("tcp-no-delay"))
+        b += Tcp.SO.TcpNoDelay(sc.getBoolean("tcp-no-delay"))
     }
     b.toList
   }
@@ -0,0 +1,196 @@
+package spray.osgi.impl
+
+import java.util.concurrent.atomic.AtomicLong
+
+import org.osgi.framework.Bundle
+
+import com.typesafe.config.Config
+import com.typesafe.config.ConfigException
+
+import spray.osgi.ResourceCacheStatistics
+
+/**
+ * A size bounded in-memory cache of static resources served from bundles.
+ *
+ * Resources are keyed by bundle id, bundle revision and entry name, and need to be invalidated
+ * when the bundle is modified or stopped. The revision of a bundle is its last modification time,
+ * so resources read from an earlier revision are never returned, and resources whose reading
+ * started before the bundle was updated are not stored.
+ */
+class ResourceCache(initialSettings: ResourceCache.Settings) extends ResourceCacheStatistics {
+  import ResourceCache._
+
+  @volatile private var currentSettings = initialSettings
+
+  /** Cached resources, eldest entry first. Guarded by `this`. */
+  private var cache = newCache(initialSettings)
+
+  /** Total size of cached resources. Guarded by `this`. */
+  private var cachedBytes = 0L
+
+  private val hitCount = new AtomicLong
+
+  private val missCount = new AtomicLong
+
+  private val evictionCount = new AtomicLong
+
+  def settings: Settings =
+    currentSettings
+
+  def enabled: Boolean =
+    settings.enabled
+
+  /**
+   * Checks if a resource of given length is eligible for caching.
+   */
+  def accepts(length: Long): Boolean =
+    settings.enabled && length >= 0 && length <= settings.maxEntrySize && length <= settings.maxBytes
+
+  def get(bundle: Bundle, name: String): Option[Resource] = {
+    val resource = peek(bundle, name)
+    if (resource.isEmpty)
+      missCount.incrementAndGet()
+    resource
+  }
+
+  /**
+   * Returns the resource if it is cached. Unlike `get`, misses are not counted, for use when the
+   * resource is looked up with `get` again on a miss.
+   */
+  def peek(bundle: Bundle, name: String): Option[Resource] = {
+    val resource = synchronized {
+      cache.get(Key(bundle.getBundleId, bundle.getLastModified, name))
+    }
+    if (resource == null)
+      None
+    else {
+      hitCount.incrementAndGet()
+      Some(resource)
+    }
+  }
+
+  /**
+   * Stores a resource read from the given revision of the bundle. The resource is dropped when the
+   * bundle was updated in the meantime.
+   *
+   * @param revision last modification time of the bundle, taken before the resource was read.
+   */
+  def put(bundle: Bundle, revision: Long, name: String, resource: Resource): Unit =
+    if (accepts(resource.length) && revision == bundle.getLastModified) synchronized {
+      val previous = cache.put(Key(bundle.getBundleId, revision, name), resource)
+      if (previous != null)
+        cachedBytes -= previous.length
+      cachedBytes += resource.length
+      evict()
+    }
+
+  /**
+   * Applies new settings. Cached resources are retained, unless the cache is disabled or the
+   * eviction policy changes, and are evicted as needed to fit the new size limits.
+   */
+  def reconfigure(newSettings: Settings): Unit =
+    synchronized {
+      if (!newSettings.enabled || newSettings.evictionPolicy != currentSettings.evictionPolicy) {
+        cache = newCache(newSettings)
+        cachedBytes = 0
+      }
+      currentSettings = newSettings
+      val i = cache.values.iterator
+      while (i.hasNext) {
+        val resource = i.next()
+        if (resource.length > newSettings.maxEntrySize) {
+          cachedBytes -= resource.length
+          i.remove()
+          evictionCount.incrementAndGet()
+        }
+      }
+      evict()
+    }
+
+  /** Evicts the eldest resources until the cached ones fit in the size limit. */
+  private def evict(): Unit = {
+    val eldest = cache.values.iterator
+    while (cachedBytes > currentSettings.maxBytes && eldest.hasNext) {
+      cachedBytes -= eldest.next().length
+      eldest.remove()
+      evictionCount.incrementAndGet()
+    }
+  }
+
+  /**
+   * Removes all resources of the given bundle from the cache.
+   */
+  def invalidate(bundle: Bundle): Unit =
+    synchronized {
+      val bundleId = bundle.getBundleId
+      val i = cache.entrySet.iterator
+      while (i.hasNext) {
+        val e = i.next()
+        if (e.getKey.bundleId == bundleId) {
+          cachedBytes -= e.getValue.length
+          i.remove()
+        }
+      }
+    }
+
+  def hits: Long =
+    hitCount.get
+
+  def misses: Long =
+    missCount.get
+
+  def evictions: Long =
+    evictionCount.get
+
+  def entries: Int =
+    synchronized {
+      cache.size
+    }
+
+  def bytes: Long =
+    synchronized {
+      cachedBytes
+    }
+}
+
+object ResourceCache {
+
+  case class Key(bundleId: Long, revision: Long, name: String)
+
+  private def newCache(settings: Settings) =
+    new java.util.LinkedHashMap[Key, Resource](16, 0.75f, settings.evictionPolicy == Lru)
+
+  case class Resource(bytes: Array[Byte], lastModified: Long) {
+    def length: Long = bytes.length
+  }
+
+  sealed trait EvictionPolicy
+
+  /** Evict least recently used entries first. */
+  case object Lru extends EvictionPolicy
+
+  /** Evict least recently added entries first. */
+  case object Fifo extends EvictionPolicy
+
+  case class Settings(
+    enabled: Boolean,
+    maxBytes: Long,
+    maxEntrySize: Long,
+    evictionPolicy: EvictionPolicy)
+
+  object Settings {
+
+    def fromSubConfig(c: Config) = apply(
+      c getBoolean "enabled",
+      c getBytes "max-bytes",
+      c getBytes "max-entry-size",
+      evictionPolicy(c, "eviction-policy"))
+
+    private def evictionPolicy(c: Config, path: String): EvictionPolicy =
+      c.getString(path) match {
+        case "lru" ⇒ Lru
+        case "fifo" ⇒ Fifo
+        case p ⇒ throw new ConfigException.BadValue(c.getValue(path).origin, path, s"unsupported eviction policy $p")
+      }
+  }
+}
@@ -0,0 +1,151 @@
+package spray.osgi.impl
+
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+import scala.concurrent.ExecutionContext
+import scala.util.control.NonFatal
+
+import com.typesafe.config.Config
+
+import spray.http.HttpResponse
+import spray.http.StatusCodes
+import spray.http.HttpHeaders.RawHeader
+import spray.osgi.ResourceIoStatistics
+import spray.routing.RequestContext
+import spray.routing.Route
+
+/**
+ * A bounded thread pool running the routes that read static resources from bundles, so that
+ * blocking I/O does not tie up the threads of the dispatcher handling connections and
+ * application actors.
+ *
+ * When all threads are busy and the queue is full, requests are completed with
+ * `503 Service Unavailable` right away.
+ *
+ * @param initialSettings pool settings.
+ */
+class ResourceIoExecutor(initialSettings: ResourceIoExecutor.Settings) extends ResourceIoStatistics {
+  import ResourceIoExecutor._
+
+  @volatile private var settings = initialSettings
+
+  // the queue is unbounded, its length is limited on submission so that the limit can be changed
+  private val executor = new ThreadPoolExecutor(settings.threads, settings.threads, 0L, TimeUnit.MILLISECONDS,
+    new LinkedBlockingQueue[Runnable], new ThreadFactory {
+      private val count = new AtomicInteger
+      def newThread(r: Runnable): Thread = {
+        val thread = new Thread(r, s"spray-resource-io-${count.incrementAndGet()}")
+        thread.setDaemon(true)
+        thread
+      }
+    })
+
+  private val rejected = new AtomicLong
+
+  private val completed = new AtomicLong
+
+  private val totalQueueTime = new AtomicLong
+
+  private val maxQueueTime = new AtomicLong
+
+  /**
+   * Returns a route running the given route on a pool thread, or rejecting the request with
+   * `503 Service Unavailable` when the pool is saturated. Exceptions thrown by the route fail the
+   * request, like in a route wrapped with `detach` directive.
+   */
+  def detached(route: Route): Route = { ctx ⇒
+    val submitted = System.nanoTime
+    val task = new Runnable {
+      def run(): Unit = {
+        val queueTime = System.nanoTime - submitted
+        try route(ctx)
+        catch { case NonFatal(e) ⇒ ctx.failWith(e) }
+        finally recordCompletion(queueTime)
+      }
+    }
+    try {
+      if (executor.getQueue.size >= settings.queueSize)
+        throw new RejectedExecutionException
+      executor.execute(task)
+    } catch {
+      case e: RejectedExecutionException ⇒
+        rejected.incrementAndGet()
+        ctx.complete(Saturated)
+    }
+  }
+
+  /**
+   * Runs the reads of the responses that were already started, such as the chunks of streamed
+   * resources, on the pool threads. These reads are queued regardless of the queue limit, as
+   * rejecting them would break the responses.
+   */
+  val executionContext: ExecutionContext = ExecutionContext.fromExecutor(executor)
+
+  private def recordCompletion(queueTime: Long): Unit = {
+    completed.incrementAndGet()
+    totalQueueTime.addAndGet(queueTime)
+    var max = maxQueueTime.get
+    while (queueTime > max && !maxQueueTime.compareAndSet(max, queueTime))
+      max = maxQueueTime.get
+  }
+
+  /**
+   * Applies new pool settings. Running and queued reads are not affected.
+   */
+  def reconfigure(settings: Settings): Unit = synchronized {
+    if (settings.threads > executor.getMaximumPoolSize) {
+      executor.setMaximumPoolSize(settings.threads)
+      executor.setCorePoolSize(settings.threads)
+    } else {
+      executor.setCorePoolSize(settings.threads)
+      executor.setMaximumPoolSize(settings.threads)
+    }
+    this.settings = settings
+  }
+
+  /**
+   * Stops the pool threads once the queued reads are done.
+   */
+  def shutdown(): Unit =
+    executor.shutdown()
+
+  def activeThreads: Int = executor.getActiveCount
+
+  def queuedReads: Int = executor.getQueue.size
+
+  def completedReads: Long = completed.get
+
+  def rejectedReads: Long = rejected.get
+
+  def meanQueueTimeMicros: Long = {
+    val count = completed.get
+    if (count == 0) 0 else totalQueueTime.get / count / 1000
+  }
+
+  def maxQueueTimeMicros: Long = maxQueueTime.get / 1000
+}
+
+object ResourceIoExecutor {
+
+  /**
+   * @param threads number of threads reading resources.
+   * @param queueSize maximum number of reads waiting for a thread.
+   */
+  case class Settings(threads: Int, queueSize: Int)
+
+  object Settings {
+
+    def fromSubConfig(c: Config) = apply(
+      c getInt "threads",
+      c getInt "queue-size")
+  }
+
+  private val Saturated = HttpResponse(StatusCodes.ServiceUnavailable, "Server is busy, please retry later.",
+    RawHeader("Retry-After", "1") :: Nil)
+}
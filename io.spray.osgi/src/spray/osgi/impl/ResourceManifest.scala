@@ -0,0 +1,85 @@
+package spray.osgi.impl
+
+import java.io.IOException
+import java.security.MessageDigest
+
+import scala.collection.concurrent.TrieMap
+
+import org.osgi.framework.Bundle
+
+import spray.http.ContentType
+
+/**
+ * Metadata of static resources served from bundles, computed once per resource, so that serving
+ * a resource does not require inspecting the bundle entry first.
+ */
+object ResourceManifest {
+
+  /**
+   * @param length length of the resource.
+   * @param lastModified modification time of the bundle entry.
+   * @param contentType content type derived from the resource name.
+   * @param hash hexadecimal digest of the resource content.
+   */
+  case class Entry(length: Long, lastModified: Long, contentType: ContentType, hash: String) {
+
+    /** Strong entity tag of the resource, which changes only when its content does. */
+    def etag: String = hash
+  }
+
+  /**
+   * Metadata of the resources of a bundle, computed on first request of each resource.
+   */
+  class Entries(bundle: Bundle) {
+
+    private val entries = TrieMap[String, Option[Entry]]()
+
+    /**
+     * Returns the metadata of the given bundle entry, computing it on first use.
+     */
+    def apply(name: String): Option[Entry] =
+      entries.getOrElseUpdate(name, entry(bundle, name))
+
+    /**
+     * Returns the metadata of the given bundle entry, if they have been computed already. Performs
+     * no I/O.
+     */
+    def computed(name: String): Option[Option[Entry]] =
+      entries.get(name)
+  }
+
+  private val DigestAlgorithm = "SHA-1"
+
+  private val BufferSize = 8192
+
+  /**
+   * Computes the metadata of the given bundle entry. Returns `None` for directories and entries
+   * that could not be read.
+   */
+  def entry(bundle: Bundle, name: String): Option[Entry] =
+    if (name.endsWith("/")) None
+    else Option(bundle.getEntry(name)).flatMap { url ⇒
+      try {
+        val conn = url.openConnection()
+        conn.setUseCaches(false)
+        val is = conn.getInputStream
+        try {
+          val digest = MessageDigest.getInstance(DigestAlgorithm)
+          val buffer = new Array[Byte](BufferSize)
+          var length = 0L
+          var n = is.read(buffer)
+          while (n >= 0) {
+            digest.update(buffer, 0, n)
+            length += n
+            n = is.read(buffer)
+          }
+          Some(Entry(length, conn.getLastModified, StaticResourcesDirective.contentType(name), hex(digest.digest)))
+        } finally { is.close() }
+      } catch {
+        case e: IOException ⇒ None
+      }
+    }
+
+  private def hex(bytes: Array[Byte]): String =
+    bytes.map(b ⇒ f"${b & 0xff}%02x").mkString
+}
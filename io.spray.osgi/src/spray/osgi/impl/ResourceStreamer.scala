@@ -0,0 +1,159 @@
+package spray.osgi.impl
+
+import java.io.EOFException
+import java.io.InputStream
+
+import scala.annotation.tailrec
+import scala.concurrent.ExecutionContext
+import scala.concurrent.Future
+import scala.concurrent.duration.FiniteDuration
+
+import com.typesafe.config.Config
+
+import akka.actor.Actor
+import akka.actor.ActorLogging
+import akka.actor.ActorRef
+import akka.actor.Props
+import akka.actor.ReceiveTimeout
+import akka.actor.Status
+import akka.io.Tcp
+import akka.pattern.pipe
+import spray.http.ChunkedMessageEnd
+import spray.http.ChunkedResponseStart
+import spray.http.ContentType
+import spray.http.HttpData
+import spray.http.HttpEntity
+import spray.http.HttpResponse
+import spray.http.MessageChunk
+
+/**
+ * Streams a bundle entry to the client as a chunked response. Each chunk is read from the entry
+ * only after the previous one has been acknowledged by the connection, so at most one chunk of
+ * the entry is kept in memory at any time.
+ *
+ * Chunks are read on the resource I/O pool and piped back to the actor, so that blocking reads
+ * do not tie up the threads of the dispatcher the actor runs on.
+ *
+ * @param responder the actor receiving the response parts.
+ * @param response the response, without an entity.
+ * @param contentType content type of the entry.
+ * @param is the entry's content, positioned at the first byte to be sent. The stream is closed
+ * when the actor stops.
+ * @param length number of bytes to be sent.
+ * @param settings streaming settings.
+ * @param io execution context of the resource I/O pool.
+ */
+class ResourceStreamer(responder: ActorRef, response: HttpResponse, contentType: ContentType,
+  is: InputStream, length: Long, settings: ResourceStreamer.Settings, io: ExecutionContext) extends Actor with ActorLogging {
+  import ResourceStreamer._
+
+  private var remaining = length
+
+  /** Whether the first chunk, starting the response, has been sent. */
+  private var started = false
+
+  override def preStart(): Unit = {
+    context.setReceiveTimeout(settings.idleTimeout)
+    readChunk()
+  }
+
+  override def postStop(): Unit =
+    is.close()
+
+  def receive = {
+    case Chunk(data) ⇒
+      remaining -= data.length
+      if (started)
+        responder ! MessageChunk(data).withAck(ChunkSent)
+      else {
+        started = true
+        responder ! ChunkedResponseStart(response.withEntity(HttpEntity(contentType, data))).withAck(ChunkSent)
+      }
+    // the connection is aborted, because part of the response might have already been sent
+    case Status.Failure(e) ⇒
+      log.error(e, "failed to read resource")
+      responder ! Tcp.Abort
+      context.stop(self)
+    case ChunkSent if remaining > 0 ⇒
+      readChunk()
+    case ChunkSent ⇒
+      responder ! ChunkedMessageEnd
+      context.stop(self)
+    case _: Tcp.ConnectionClosed ⇒
+      context.stop(self)
+    case ReceiveTimeout ⇒
+      log.warning(s"no acknowledgement received within ${settings.idleTimeout}, aborting response")
+      responder ! Tcp.Abort
+      context.stop(self)
+  }
+
+  /**
+   * Reads the next chunk of the entry on the I/O pool, and sends it to this actor as a `Chunk`, or
+   * a `Status.Failure` when the entry cannot be read.
+   */
+  private def readChunk(): Unit = {
+    val size = math.min(settings.chunkSize, remaining).toInt
+    pipe(Future {
+      val buffer = new Array[Byte](size)
+      readFully(is, buffer)
+      Chunk(HttpData(buffer))
+    }(io))(io) to self
+  }
+}
+
+object ResourceStreamer {
+
+  def props(responder: ActorRef, response: HttpResponse, contentType: ContentType,
+    is: InputStream, length: Long, settings: Settings, io: ExecutionContext): Props =
+    Props(new ResourceStreamer(responder, response, contentType, is, length, settings, io))
+
+  private case object ChunkSent
+
+  private case class Chunk(data: HttpData)
+
+  /**
+   * @param threshold resources larger than this are streamed.
+   * @param chunkSize size of the chunks the resources are streamed in.
+   * @param idleTimeout time to wait for acknowledgement of a chunk before aborting the response.
+   */
+  case class Settings(
+    threshold: Long,
+    chunkSize: Int,
+    idleTimeout: FiniteDuration)
+
+  object Settings {
+    import ListenerSettings.ConfigWithDuration
+
+    def fromSubConfig(c: Config) = apply(
+      c getBytes "threshold",
+      c.getBytes("chunk-size").toInt,
+      c getDuration "idle-timeout")
+  }
+
+  /**
+   * Skips exactly `n` bytes of the stream.
+   *
+   * @throws EOFException if the stream ends before.
+   */
+  @tailrec
+  def skipFully(is: InputStream, n: Long): Unit =
+    if (n > 0) {
+      val skipped = is.skip(n)
+      if (skipped > 0)
+        skipFully(is, n - skipped)
+      else if (is.read() >= 0)
+        skipFully(is, n - 1)
+      else
+        throw new EOFException
+    }
+
+  private def readFully(is: InputStream, buffer: Array[Byte]): Unit = {
+    var offset = 0
+    while (offset < buffer.length) {
+      val n = is.read(buffer, offset, buffer.length - offset)
+      if (n < 0)
+        throw new EOFException
+      offset += n
+    }
+  }
+}
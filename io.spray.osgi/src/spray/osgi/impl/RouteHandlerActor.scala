@@ -0,0 +1,61 @@
+package spray.osgi.impl
+
+import java.util.concurrent.atomic.AtomicReference
+
+import akka.actor.Props
+import akka.io.Tcp
+import spray.http.HttpRequest
+import spray.http.Timedout
+import spray.routing.HttpServiceActor
+
+/**
+ * Dispatches requests using the latest snapshot of the dispatch index published by
+ * [[RouteManagerActor]]. Any number of handlers may run concurrently.
+ *
+ * Timeouts of the requests are reported to the route metrics before the timeout response is sent,
+ * as the route handling a timed out request may never respond.
+ *
+ * @param table the published dispatch index.
+ * @param metrics registry of the instrumented routes.
+ * @param perConnection whether the handler serves a single connection, and should stop when
+ * the connection is closed.
+ */
+class RouteHandlerActor(table: AtomicReference[RouteIndex], metrics: RouteMetricsRegistry, perConnection: Boolean) extends HttpServiceActor {
+
+  /** The snapshot `handle` was created for. */
+  private var index: RouteIndex = _
+
+  private var handle: Receive = _
+
+  def receive = {
+    case _: Tcp.ConnectionClosed if perConnection ⇒
+      context.stop(self)
+    case request: HttpRequest ⇒
+      metrics.startDispatch(sender())
+      try dispatch(request)
+      finally metrics.endDispatch()
+    case timedOut: Timedout ⇒
+      metrics.timedOut(sender())
+      dispatch(timedOut)
+    case message ⇒
+      dispatch(message)
+  }
+
+  private def dispatch(message: Any): Unit = {
+    val current = table.get
+    if (current ne index) {
+      index = current
+      handle = runRoute(current.route)
+    }
+    if (handle.isDefinedAt(message))
+      handle(message)
+    else
+      unhandled(message)
+  }
+}
+
+object RouteHandlerActor {
+
+  def props(table: AtomicReference[RouteIndex], metrics: RouteMetricsRegistry, perConnection: Boolean): Props =
+    Props(new RouteHandlerActor(table, metrics, perConnection))
+}
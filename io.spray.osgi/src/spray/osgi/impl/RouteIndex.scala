@@ -0,0 +1,149 @@
+package spray.osgi.impl
+
+import scala.annotation.tailrec
+import scala.collection.mutable
+
+import spray.http.Uri.Path
+import spray.routing.Route
+import spray.routing.RouteConcatenation.pimpRouteWithConcatenation
+
+/**
+ * Dispatch index of the routes registered with [[RouteManagerActor]].
+ *
+ * Each route may declare a number of leading path prefixes. A request is offered only to the
+ * routes whose prefix matches the leading segments of the request path, and to the catch-all
+ * routes that declared no prefix at all. Matching candidates for every node of the prefix trie
+ * are concatenated when the index is built, so the cost of a lookup depends on the depth of the
+ * request path rather than on the number of registered routes.
+ *
+ * Candidates are tried in the order of descending ranking, and routes of equal ranking in the
+ * order they were added to the index.
+ *
+ * Instances are immutable, `added` and `removed` return a new index.
+ */
+class RouteIndex private (entries: Vector[RouteIndex.Entry], nextSeq: Long) {
+  import RouteIndex._
+
+  def isEmpty: Boolean =
+    entries.isEmpty
+
+  def size: Int =
+    entries.size
+
+  /**
+   * Returns an index including the given route.
+   *
+   * @param route the route, identifying it on removal.
+   * @param dispatched the route requests are dispatched to, either `route` or a wrapper of it.
+   * @param prefixes leading path prefixes of the requests handled by the route, using `/` as
+   * segment separator. An empty string denotes the server root. An empty sequence makes the route
+   * a catch-all.
+   * @param ranking precedence of the route.
+   */
+  def added(route: Route, dispatched: Route, prefixes: Seq[String], ranking: Int): RouteIndex =
+    new RouteIndex(entries :+ Entry(route, dispatched, prefixes.map(segments).distinct, ranking, nextSeq), nextSeq + 1)
+
+  /**
+   * Returns an index without the given route. Routes are compared by reference.
+   */
+  def removed(route: Route): RouteIndex =
+    new RouteIndex(entries.filterNot(_.route eq route), nextSeq)
+
+  /** Root of the prefix trie, built on first use. */
+  private lazy val root: Node = build()
+
+  /**
+   * Returns the concatenation of the routes that are candidates for handling the given path.
+   */
+  def lookup(path: Path): Route =
+    walk(root, path).route
+
+  /**
+   * A route dispatching each request to the candidate routes for the request's path.
+   */
+  val route: Route =
+    ctx ⇒ lookup(ctx.unmatchedPath)(ctx)
+
+  @tailrec
+  private def walk(node: Node, path: Path): Node = path match {
+    case Path.Slash(Path.Segment(head, tail)) ⇒
+      node.children.get(head) match {
+        case Some(child) ⇒ walk(child, tail)
+        case None ⇒ node
+      }
+    case Path.Slash(tail) ⇒
+      node.children.get("") match {
+        case Some(child) ⇒ walk(child, tail)
+        case None ⇒ node
+      }
+    case Path.Segment(head, tail) ⇒
+      node.children.get(head) match {
+        case Some(child) ⇒ walk(child, tail)
+        case None ⇒ node
+      }
+    case _ ⇒
+      node
+  }
+
+  private def build(): Node = {
+    class Builder {
+      val children = mutable.Map[String, Builder]()
+      val entries = mutable.ListBuffer[Entry]()
+    }
+
+    val rootBuilder = new Builder
+    entries.foreach { entry ⇒
+      if (entry.prefixes.isEmpty)
+        rootBuilder.entries += entry
+      else
+        entry.prefixes.foreach { prefix ⇒
+          val builder = prefix.foldLeft(rootBuilder) { (b, segment) ⇒
+            b.children.getOrElseUpdate(segment, new Builder)
+          }
+          builder.entries += entry
+        }
+    }
+
+    def freeze(builder: Builder, inherited: Vector[Entry]): Node = {
+      val candidates =
+        if (builder.entries.isEmpty) inherited
+        else (inherited ++ builder.entries).distinct.sorted(EntryOrdering)
+      val children = builder.children.map {
+        case (segment, child) ⇒ segment → freeze(child, candidates)
+      }.toMap
+      new Node(children, concatenate(candidates))
+    }
+
+    freeze(rootBuilder, Vector.empty)
+  }
+}
+
+object RouteIndex {
+
+  val empty: RouteIndex =
+    new RouteIndex(Vector.empty, 0)
+
+  private[impl] case class Entry(route: Route, dispatched: Route, prefixes: Seq[Seq[String]], ranking: Int, seq: Long)
+
+  private[impl] final class Node(val children: Map[String, Node], val route: Route)
+
+  /** Higher ranking first, then registration order. */
+  private val EntryOrdering: Ordering[Entry] = new Ordering[Entry] {
+    def compare(a: Entry, b: Entry): Int =
+      if (a.ranking != b.ranking) java.lang.Integer.compare(b.ranking, a.ranking)
+      else java.lang.Long.compare(a.seq, b.seq)
+  }
+
+  private val rejectAll: Route =
+    _.reject()
+
+  private def concatenate(entries: Seq[Entry]): Route =
+    entries.map(_.dispatched).reduceRightOption(_ ~ _).getOrElse(rejectAll)
+
+  /**
+   * Splits a prefix into path segments. `""` and `"/"` denote the server root, a trailing slash
+   * is significant.
+   */
+  private def segments(prefix: String): Seq[String] =
+    prefix.stripPrefix("/").split("/", -1).toSeq
+}
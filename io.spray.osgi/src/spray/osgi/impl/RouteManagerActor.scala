@@ -1,30 +1,123 @@
 package spray.osgi.impl
 
+import java.util.concurrent.atomic.AtomicReference
+
+import com.typesafe.config.Config
+import com.typesafe.config.ConfigException
+
 import akka.actor.Actor
 import akka.actor.ActorRef
 import akka.actor.Props
+import akka.io.Tcp
+import akka.routing.AdjustPoolSize
+import akka.routing.RoundRobinPool
 import spray.osgi.RouteManager
-import spray.routing.HttpServiceActor
-import spray.routing.Route
-import spray.routing.RouteConcatenation._
 
-class RouteManagerActor extends HttpServiceActor {
+/**
+ * Coordinates the registered routes, and hands connections over to the handlers dispatching
+ * requests.
+ *
+ * Route changes are staged, and applied when a `Rebuild` message the actor sends to itself
+ * arrives. All changes received in the meantime are coalesced into a single update, which is
+ * published as an immutable snapshot of the dispatch index. Handlers pick up the latest snapshot
+ * for every request, so requests are dispatched either with none or with all of the changes
+ * applied, and are never routed through this actor's mailbox.
+ *
+ * Handler settings sent to this actor apply to the connections accepted afterwards. When the size
+ * of the pool changes, handlers are added to or removed from the running pool, removing a handler
+ * closes the connections it serves.
+ *
+ * @param initialSettings settings of request handlers.
+ * @param metrics registry instrumenting the named routes.
+ */
+class RouteManagerActor(initialSettings: RouteManagerActor.HandlerSettings, metrics: RouteMetricsRegistry) extends Actor {
   import RouteManager._
+  import RouteManagerActor._
+
+  /** The latest published snapshot of the dispatch index. */
+  private val table = new AtomicReference(RouteIndex.empty)
 
-  def watchRoutes(routes: Set[Route]): Receive = {
-    case RouteAdded(route) ⇒
-      useRoutes(routes + route)
-    case RouteRemoved(route) ⇒
-      useRoutes(routes - route)
+  private var settings = initialSettings
+
+  /** Handler shared by all connections in pool mode, created on first connection. */
+  private var pool: Option[ActorRef] = None
+
+  /**
+   * @param staged index including the changes not published yet, if any.
+   */
+  def watchRoutes(staged: Option[RouteIndex]): Receive = {
+    case change: RouteChange ⇒
+      stage(staged, Seq(change))
+    case RouteBatch(changes) ⇒
+      stage(staged, changes)
+    case Rebuild ⇒
+      staged.foreach(table.set)
+      context become watchRoutes(None)
+    case _: Tcp.Connected ⇒
+      sender() ! Tcp.Register(handler())
+    case newSettings: HandlerSettings ⇒
+      if (newSettings.poolSize != settings.poolSize)
+        pool.foreach(_ ! AdjustPoolSize(newSettings.poolSize - settings.poolSize))
+      settings = newSettings
   }
 
-  def useRoutes(routes: Set[Route]): Unit =
-    context become (routes reduceRightOption (_ ~ _) match {
-      case Some(route) ⇒
-        watchRoutes(routes) orElse runRoute(route)
-      case _ ⇒
-        watchRoutes(routes)
-    })
+  def stage(staged: Option[RouteIndex], changes: Seq[RouteChange]): Unit = {
+    if (staged.isEmpty)
+      self ! Rebuild
+    context become watchRoutes(Some(changes.foldLeft(staged.getOrElse(table.get))(applyChange)))
+  }
+
+  private def applyChange(index: RouteIndex, change: RouteChange): RouteIndex =
+    change match {
+      case RouteAdded(route, prefixes, ranking, name) ⇒
+        index.added(route, name.fold(route)(metrics.instrument(_, route)), prefixes, ranking)
+      case RouteRemoved(route) ⇒
+        index.removed(route)
+    }
+
+  private def handler(): ActorRef = settings.mode match {
+    case PerConnection ⇒ context.actorOf(RouteHandlerActor.props(table, metrics, true))
+    case Pool ⇒ pool.getOrElse {
+      val p = context.actorOf(RoundRobinPool(settings.poolSize).props(RouteHandlerActor.props(table, metrics, false)), "handlers")
+      pool = Some(p)
+      p
+    }
+  }
+
+  def receive = watchRoutes(None)
+}
 
-  def receive = watchRoutes(Set())
+object RouteManagerActor {
+
+  def props(settings: HandlerSettings, metrics: RouteMetricsRegistry): Props =
+    Props(new RouteManagerActor(settings, metrics))
+
+  /** Publishes the staged route changes. */
+  private case object Rebuild
+
+  sealed trait HandlerMode
+
+  /** Each connection gets a dedicated handler, stopped when the connection is closed. */
+  case object PerConnection extends HandlerMode
+
+  /** Connections share a fixed pool of handlers, requests are distributed round robin. */
+  case object Pool extends HandlerMode
+
+  case class HandlerSettings(
+    mode: HandlerMode,
+    poolSize: Int)
+
+  object HandlerSettings {
+
+    def fromSubConfig(c: Config) = apply(
+      handlerMode(c, "mode"),
+      c getInt "pool-size")
+
+    private def handlerMode(c: Config, path: String): HandlerMode =
+      c.getString(path) match {
+        case "per-connection" ⇒ PerConnection
+        case "pool" ⇒ Pool
+        case m ⇒ throw new ConfigException.BadValue(c.getValue(path).origin, path, s"unsupported handler mode $m")
+      }
+  }
 }
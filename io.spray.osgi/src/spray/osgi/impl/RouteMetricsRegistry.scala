@@ -0,0 +1,135 @@
+package spray.osgi.impl
+
+import java.util.concurrent.ConcurrentHashMap
+
+import scala.collection.concurrent.TrieMap
+
+import com.typesafe.config.Config
+
+import akka.actor.ActorRef
+
+import spray.http.ContentTypes
+import spray.http.HttpEntity
+import spray.httpx.marshalling.ToResponseMarshallable.isMarshallable
+import spray.osgi.RouteMetrics
+import spray.routing.Directive.pimpApply
+import spray.routing.Directives.complete
+import spray.routing.Directives.get
+import spray.routing.Directives.path
+import spray.routing.Directives.separateOnSlashes
+import spray.routing.Route
+
+/**
+ * Keeps [[RouteRecorder]]s of the named routes. Statistics of a route are retained when it is
+ * removed, so that they keep accumulating when the route is replaced by one of the same name.
+ *
+ * @param initialSettings metrics settings.
+ */
+class RouteMetricsRegistry(initialSettings: RouteMetricsRegistry.Settings) extends RouteMetrics {
+  import RouteMetricsRegistry._
+
+  /**
+   * Metrics settings. Enabling or disabling the instrumentation affects only the routes added
+   * afterwards.
+   */
+  @volatile var settings: Settings = initialSettings
+
+  private val recorders = TrieMap[String, RouteRecorder]()
+
+  /** Recordings of the requests in flight in all instrumented routes, by request responder. */
+  private val pending = new ConcurrentHashMap[ActorRef, RouteRecorder#Recording]
+
+  /** Responder of the request being dispatched by a handler on the current thread. */
+  private val dispatching = new ThreadLocal[ActorRef]
+
+  /**
+   * Returns the route instrumented with the recorder of the given name, or the route itself when
+   * metrics are disabled.
+   */
+  def instrument(name: String, route: Route): Route =
+    if (settings.enabled) recorders.getOrElseUpdate(name, new RouteRecorder(pending, dispatching)).instrument(route)
+    else route
+
+  /**
+   * Marks the start of the dispatch of a request received from the given responder on the
+   * current thread, so that the instrumented routes can key their recordings by the responder
+   * spray-can reports timeouts with. Must be followed by `endDispatch` on the same thread.
+   */
+  def startDispatch(responder: ActorRef): Unit =
+    dispatching.set(responder)
+
+  def endDispatch(): Unit =
+    dispatching.set(null)
+
+  /**
+   * Records the request answered by the given responder as timed out, if an instrumented route
+   * is handling it.
+   */
+  def timedOut(responder: ActorRef): Unit =
+    Option(pending.get(responder)).foreach(_.timedOut())
+
+  def snapshot: Map[String, RouteMetrics.Stats] =
+    recorders.readOnlySnapshot.mapValues(_.snapshot).toMap
+
+  /**
+   * A route rendering the current statistics as JSON, if the endpoint is enabled.
+   */
+  def endpoint: Option[Route] =
+    settings.endpoint.filter(_ ⇒ settings.enabled).map { p ⇒
+      path(separateOnSlashes(p)) {
+        get {
+          complete {
+            HttpEntity(ContentTypes.`application/json`, toJson(snapshot))
+          }
+        }
+      }
+    }
+}
+
+object RouteMetricsRegistry {
+
+  /**
+   * @param enabled whether the routes are instrumented.
+   * @param endpoint path of the JSON endpoint, if enabled.
+   */
+  case class Settings(
+    enabled: Boolean,
+    endpoint: Option[String])
+
+  object Settings {
+
+    def fromSubConfig(c: Config) = apply(
+      c getBoolean "enabled",
+      Option(c getString "endpoint").map(_.stripPrefix("/")).filterNot(_.isEmpty))
+  }
+
+  private def toJson(stats: Map[String, RouteMetrics.Stats]): String = {
+    val b = new StringBuilder
+    b += '{'
+    stats.toSeq.sortBy(_._1).zipWithIndex.foreach {
+      case ((name, s), i) ⇒
+        if (i > 0) b += ','
+        quote(name, b)
+        b ++= s""":{"requests":${s.requests},"inFlight":${s.inFlight},"status":{"""
+        s.statusCounts.toSeq.sorted.zipWithIndex.foreach {
+          case ((status, count), j) ⇒
+            if (j > 0) b += ','
+            b ++= s""""$status":$count"""
+        }
+        b ++= s"""},"latencyMicros":{"p50":${s.p50},"p99":${s.p99},"p999":${s.p999},"max":${s.max}}}"""
+    }
+    b += '}'
+    b.toString
+  }
+
+  private def quote(s: String, b: StringBuilder): Unit = {
+    b += '"'
+    s.foreach {
+      case '"' ⇒ b ++= "\\\""
+      case '\\' ⇒ b ++= "\\\\"
+      case c if c < ' ' ⇒ b ++= f"\\u${c.toInt}%04x"
+      case c ⇒ b += c
+    }
+    b += '"'
+  }
+}
@@ -1,6 +1,7 @@
 package spray.osgi.impl
 
 import scala.annotation.meta.setter
+import scala.collection.JavaConversions.collectionAsScalaIterable
 
 import org.osgi.framework.BundleContext
 import org.osgi.framework.Constants
@@ -23,15 +24,35 @@ class RouteProvidersTracker(ctx: BundleContext, routeManager: ActorRef)
 
   override def addingService(ref: ServiceReference[RouteProvider]): Route = {
     val route = ctx.getService(ref).route
-    routeManager ! RouteAdded(route)
+    routeManager ! RouteAdded(route, prefixes(ref), ranking(ref), Some(name(ref)))
     route
   }
 
   override def modifiedService(ref: ServiceReference[RouteProvider], route: Route): Unit = {
+    // ranking or prefixes might have changed
+    routeManager ! RouteBatch(Seq(RouteRemoved(route), RouteAdded(route, prefixes(ref), ranking(ref), Some(name(ref)))))
   }
 
   override def removedService(ref: ServiceReference[RouteProvider], route: Route): Unit = {
     ctx.ungetService(ref)
     routeManager ! RouteRemoved(route)
   }
-}
\ No newline at end of file
+
+  private def ranking(ref: ServiceReference[RouteProvider]): Int =
+    ref.getProperty(Constants.SERVICE_RANKING) match {
+      case ranking: Integer ⇒ ranking
+      case _ ⇒ 0
+    }
+
+  /** Name of the route in metrics, the providing bundle and the service id. */
+  private def name(ref: ServiceReference[RouteProvider]): String =
+    s"${ref.getBundle.getSymbolicName}/service.${ref.getProperty(Constants.SERVICE_ID)}"
+
+  private def prefixes(ref: ServiceReference[RouteProvider]): Seq[String] =
+    ref.getProperty(RouteProvider.PathPrefix) match {
+      case prefix: String ⇒ Seq(prefix)
+      case prefixes: Array[String] ⇒ prefixes.toSeq
+      case prefixes: java.util.Collection[_] ⇒ prefixes.map(_.toString).toSeq
+      case _ ⇒ Nil
+    }
+}
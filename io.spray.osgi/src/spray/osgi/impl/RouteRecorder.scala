@@ -0,0 +1,197 @@
+package spray.osgi.impl
+
+import java.util.concurrent.ConcurrentMap
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+import scala.annotation.tailrec
+
+import akka.actor.ActorRef
+import akka.actor.Status
+import akka.spray.UnregisteredActorRef
+import spray.http.ChunkedResponseStart
+import spray.http.Confirmed
+import spray.http.HttpResponse
+import spray.osgi.RouteMetrics
+import spray.routing.Rejected
+import spray.routing.Route
+
+/**
+ * Records request handling statistics of a single route.
+ *
+ * Recording only updates preallocated atomic counters. Latencies are kept in a histogram of log
+ * linear buckets, each power of two range is split into eight buckets, and percentiles are
+ * computed when a snapshot is taken.
+ *
+ * Each request is tracked by a single [[RouteRecorder#Recording]] standing in for the request's
+ * responder, which records the request when the route responds, rejects the request or fails,
+ * or when the request times out, whichever comes first.
+ *
+ * Recordings are keyed by the responder spray-can handed the request to the handler with, which
+ * is also the sender of the `Timedout` message. `runRoute` wraps that responder before the route
+ * runs, so the handler publishes it in `dispatching` for the duration of the dispatch. Requests
+ * reaching the route later, on another thread, are keyed by their own responder, and their
+ * timeouts are not recorded.
+ *
+ * @param pending recordings of the requests in flight, by the original responder of the request,
+ * shared by all recorders so that timeouts can be reported without knowing the route.
+ * @param dispatching original responder of the request a handler is dispatching on the current
+ * thread.
+ */
+class RouteRecorder(pending: ConcurrentMap[ActorRef, RouteRecorder#Recording], dispatching: ThreadLocal[ActorRef]) {
+  import RouteRecorder._
+
+  private val requests = new AtomicLong
+
+  private val inFlight = new AtomicLong
+
+  private val statusCounts = new AtomicLongArray(MaxStatus)
+
+  private val latencies = new AtomicLongArray(BucketCount)
+
+  private val maxLatency = new AtomicLong
+
+  /**
+   * Returns a route recording the requests completed by the given route. Requests rejected by
+   * the route are not counted.
+   */
+  def instrument(route: Route): Route = { ctx ⇒
+    val original = dispatching.get
+    val key = if (original != null) original else ctx.responder
+    val recording = new Recording(ctx.responder, key, System.nanoTime)
+    inFlight.incrementAndGet()
+    pending.put(key, recording)
+    try route(ctx.withResponder(recording))
+    catch {
+      case e: Exception ⇒
+        recording.completed(InternalServerError)
+        throw e
+    }
+  }
+
+  /**
+   * Responder of a request handled by the instrumented route, recording the outcome of the request
+   * once and forwarding all messages to the original responder.
+   *
+   * @param responder the responder of the request context.
+   * @param key the key of the recording in `pending`.
+   * @param start time the request was dispatched to the route.
+   */
+  final class Recording(responder: ActorRef, key: ActorRef, start: Long) extends UnregisteredActorRef(responder) {
+
+    /** Guarded by `this`. */
+    private var done = false
+
+    def handle(message: Any)(implicit sender: ActorRef): Unit = {
+      message match {
+        case response: HttpResponse ⇒ completed(response.status.intValue)
+        case ChunkedResponseStart(response) ⇒ completed(response.status.intValue)
+        case Confirmed(ChunkedResponseStart(response), _) ⇒ completed(response.status.intValue)
+        case Confirmed(response: HttpResponse, _) ⇒ completed(response.status.intValue)
+        case _: Rejected ⇒ if (finish()) inFlight.decrementAndGet()
+        case _: Status.Failure ⇒ completed(InternalServerError)
+        case _ ⇒
+      }
+      responder.tell(message, sender)
+    }
+
+    /**
+     * Records the request as completed with the given status, unless its outcome was recorded
+     * already.
+     */
+    def completed(status: Int): Unit =
+      if (finish())
+        record(start, status)
+
+    /** Records the request as timed out, answered by the server's timeout route. */
+    def timedOut(): Unit =
+      completed(InternalServerError)
+
+    private def finish(): Boolean = {
+      val first = synchronized {
+        val first = !done
+        done = true
+        first
+      }
+      if (first)
+        pending.remove(key, this)
+      first
+    }
+  }
+
+  private def record(start: Long, status: Int): Unit = {
+    val latency = (System.nanoTime - start) / 1000
+    inFlight.decrementAndGet()
+    requests.incrementAndGet()
+    if (status >= 0 && status < MaxStatus)
+      statusCounts.incrementAndGet(status)
+    latencies.incrementAndGet(bucket(latency))
+    updateMax(latency)
+  }
+
+  @tailrec
+  private def updateMax(latency: Long): Unit = {
+    val max = maxLatency.get
+    if (latency > max && !maxLatency.compareAndSet(max, latency))
+      updateMax(latency)
+  }
+
+  def snapshot: RouteMetrics.Stats = {
+    val counts = Array.tabulate(BucketCount)(latencies.get)
+    val total = counts.sum
+    def percentile(q: Double): Long =
+      if (total == 0) 0
+      else {
+        val rank = math.ceil(q * total).toLong
+        var cumulative = 0L
+        var b = 0
+        while (cumulative + counts(b) < rank) {
+          cumulative += counts(b)
+          b += 1
+        }
+        upperBound(b)
+      }
+    val statuses = (0 until MaxStatus).collect {
+      case status if statusCounts.get(status) > 0 ⇒ status → statusCounts.get(status)
+    }.toMap
+    RouteMetrics.Stats(requests.get, inFlight.get, statuses,
+      percentile(0.5), percentile(0.99), percentile(0.999), maxLatency.get)
+  }
+}
+
+object RouteRecorder {
+
+  /** Status of the responses to failed and timed out requests. */
+  private val InternalServerError = 500
+
+  private val MaxStatus = 600
+
+  /** Latencies below this are recorded exactly. */
+  private val LinearLimit = 16
+
+  private val SubBuckets = 8
+
+  private val SubBucketBits = 3
+
+  /** Covers latencies up to 2^40 microseconds. */
+  private val BucketCount = LinearLimit + (40 - 4) * SubBuckets
+
+  private def bucket(value: Long): Int =
+    if (value < LinearLimit) math.max(value, 0).toInt
+    else {
+      val exponent = 63 - java.lang.Long.numberOfLeadingZeros(value)
+      val mantissa = ((value >>> (exponent - SubBucketBits)) & (SubBuckets - 1)).toInt
+      math.min(LinearLimit + (exponent - 4) * SubBuckets + mantissa, BucketCount - 1)
+    }
+
+  private def lowerBound(bucket: Int): Long =
+    if (bucket < LinearLimit) bucket
+    else {
+      val exponent = (bucket - LinearLimit) / SubBuckets + 4
+      val mantissa = (bucket - LinearLimit) % SubBuckets
+      (SubBuckets + mantissa).toLong << (exponent - SubBucketBits)
+    }
+
+  private def upperBound(bucket: Int): Long =
+    lowerBound(bucket + 1) - 1
+}
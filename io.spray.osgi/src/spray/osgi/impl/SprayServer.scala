@@ -1,5 +1,8 @@
 package spray.osgi.impl
 
+import java.util.concurrent.TimeUnit
+
+import scala.concurrent.duration.FiniteDuration
 import scala.util.Failure
 import scala.util.Success
 
@@ -11,57 +14,108 @@ import com.typesafe.config.Config
 import akka.actor.ActorRef
 import akka.actor.ActorSystem
 import akka.actor.PoisonPill
-import akka.actor.Props
 import akka.event.BusLogging
 import akka.event.LoggingAdapter
 import akka.io.IO
-import akka.io.Tcp
 import akka.pattern.ask
 import akka.pattern.AskTimeoutException
 import akka.util.Timeout
 import spray.can.Http
 import spray.can.server.ServerSettings
+import spray.osgi.BundleScanQueue
 import spray.osgi.RouteManager
 import spray.routing.Route
 
 class SprayServer(config: Config, implicit val actorSystem: ActorSystem, ctx: BundleContext) extends RouteManager {
 
-  val serverSettings = ServerSettings.fromSubConfig(config.getConfig("spray.can.server"))
-  val listenerSettings = ListenerSettings.fromSubConfig(config.getConfig("spray.can.server.listener"))
+  @volatile private var listenerSettings = ListenerSettings.fromSubConfig(config.getConfig("spray.can.server.listener"))
+
+  /** Settings of the connections accepted by the listener. Guarded by `this`. */
+  private var serverSettings = ServerSettings.fromSubConfig(config.getConfig("spray.can.server"))
+
+  val resourceCache = new ResourceCache(ResourceCache.Settings.fromSubConfig(config.getConfig("spray.can.resources.cache")))
+
+  val resourceIo = new ResourceIoExecutor(ResourceIoExecutor.Settings.fromSubConfig(config.getConfig("spray.can.resources.io")))
+
+  val staticResources = new StaticResourcesDirective(resourceCache, resourceIo,
+    StaticResourcesDirective.GzipSettings.fromSubConfig(config.getConfig("spray.can.resources.gzip")),
+    ResourceStreamer.Settings.fromSubConfig(config.getConfig("spray.can.resources.streaming")),
+    actorSystem)
+
+  val log: LoggingAdapter = new BusLogging(actorSystem.eventStream, "Spray server", this.getClass)
+
+  @volatile private var scanSettings = config.getConfig("spray.can.resources.scan")
+
+  val scanQueue = new BundleScanQueue("spray-bundle-scan", scanSettings.getInt("parallelism"), log)
 
   val http = IO(Http)(actorSystem)
-  val serviceActor = actorSystem.actorOf(Props(classOf[RouteManagerActor]))
+  val handlerSettings = RouteManagerActor.HandlerSettings.fromSubConfig(config.getConfig("spray.can.server.handlers"))
+  val metrics = new RouteMetricsRegistry(RouteMetricsRegistry.Settings.fromSubConfig(config.getConfig("spray.can.metrics")))
+  val serviceActor = actorSystem.actorOf(RouteManagerActor.props(handlerSettings, metrics))
+
+  /** Route of the metrics endpoint, if enabled. Guarded by `this`. */
+  private var metricsEndpoint = metrics.endpoint
+  metricsEndpoint.foreach { route ⇒
+    serviceActor ! RouteManager.RouteAdded(route, metrics.settings.endpoint.toSeq)
+  }
+
   val routeServiceTracker = new RouteProvidersTracker(ctx, serviceActor)
   routeServiceTracker.open()
 
-  val log: LoggingAdapter = new BusLogging(actorSystem.eventStream, "Spray server", this.getClass)
-
-  http.ask(Http.Bind(
-    serviceActor,
-    listenerSettings.interface,
-    listenerSettings.port,
-    listenerSettings.backlog,
-    listenerSettings.socketOptions,
-    Some(serverSettings)))(Timeout(listenerSettings.bindTimeout)).onComplete {
-    case Success(b: Http.Bound) ⇒
-      log.info("server started")
-    case Success(Tcp.CommandFailed(b: Http.Bind)) ⇒
-      log.error(
-        "Binding failed. Switch on DEBUG-level logging for `akka.io.TcpListener` to log the cause.")
-    case Success(u) ⇒
-      log.error(s"server start failure, unexected message $u")
-    case Failure(e: AskTimeoutException) ⇒
-      log.error("server start timeout")
-    case Failure(e) ⇒
-      log.error("server start failure", e)
-  }(actorSystem.dispatcher)
+  val listenerActor = actorSystem.actorOf(ListenerActor.props(http, serviceActor))
+  listenerActor ! ListenerActor.Listen(listenerSettings, serverSettings)
 
   def ref: ActorRef =
     serviceActor
 
+  /**
+   * Applies a modified configuration to the running server. When the listener or server settings
+   * changed, the server socket is rebound with the new settings, connections accepted before keep
+   * their settings. Otherwise the socket and the open connections are left alone. Route and
+   * resource settings apply to the requests received from now on.
+   *
+   * @return `false` when the configuration cannot be applied to the running server, because the
+   * interface or port of the listener has changed.
+   */
+  def reconfigure(config: Config): Boolean = synchronized {
+    val newListenerSettings = ListenerSettings.fromSubConfig(config.getConfig("spray.can.server.listener"))
+    if (newListenerSettings.interface != listenerSettings.interface || newListenerSettings.port != listenerSettings.port)
+      false
+    else {
+      resourceCache.reconfigure(ResourceCache.Settings.fromSubConfig(config.getConfig("spray.can.resources.cache")))
+      resourceIo.reconfigure(ResourceIoExecutor.Settings.fromSubConfig(config.getConfig("spray.can.resources.io")))
+      staticResources.reconfigure(
+        StaticResourcesDirective.GzipSettings.fromSubConfig(config.getConfig("spray.can.resources.gzip")),
+        ResourceStreamer.Settings.fromSubConfig(config.getConfig("spray.can.resources.streaming")))
+      scanSettings = config.getConfig("spray.can.resources.scan")
+      scanQueue.setParallelism(scanSettings.getInt("parallelism"))
+      serviceActor ! RouteManagerActor.HandlerSettings.fromSubConfig(config.getConfig("spray.can.server.handlers"))
+      reconfigureMetrics(RouteMetricsRegistry.Settings.fromSubConfig(config.getConfig("spray.can.metrics")))
+      val newServerSettings = ServerSettings.fromSubConfig(config.getConfig("spray.can.server"))
+      if (newListenerSettings != listenerSettings || newServerSettings != serverSettings) {
+        listenerSettings = newListenerSettings
+        serverSettings = newServerSettings
+        listenerActor ! ListenerActor.Listen(listenerSettings, serverSettings)
+      }
+      true
+    }
+  }
+
+  private def reconfigureMetrics(settings: RouteMetricsRegistry.Settings): Unit =
+    if (settings != metrics.settings) {
+      metrics.settings = settings
+      val removed = metricsEndpoint.map(RouteManager.RouteRemoved(_))
+      metricsEndpoint = metrics.endpoint
+      val added = metricsEndpoint.map(RouteManager.RouteAdded(_, settings.endpoint.toSeq))
+      serviceActor ! RouteManager.RouteBatch(removed.toSeq ++ added)
+    }
+
   def shutdown(): Unit = {
     routeServiceTracker.close()
+    scanQueue.shutdown(FiniteDuration(scanSettings.getDuration("shutdown-timeout", TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS))
     serviceActor ! PoisonPill
+    listenerActor ! PoisonPill
+    resourceIo.shutdown()
     http.ask(Http.CloseAll)(Timeout(listenerSettings.bindTimeout)).onComplete {
       case Success(Http.ClosedAll) ⇒
         log.info("server stopped")
@@ -75,10 +129,18 @@ class SprayServer(config: Config, implicit val actorSystem: ActorSystem, ctx: Bu
   }
 
   def getBundleResource(bundle: Bundle, path: String): Route = {
-    StaticResourcesDirective.getBundleResource(bundle, path)
+    staticResources.getBundleResource(bundle, path)
   }
 
   def getBundleResources(bundle: Bundle, paths: Seq[String], resBasePath: String): Route = {
-    StaticResourcesDirective.getBundleResources(bundle, paths, resBasePath)
+    staticResources.getBundleResources(bundle, paths, resBasePath)
+  }
+
+  def getBundleDirectory(bundle: Bundle, basePath: String, welcomeFile: Option[String]): Route = {
+    staticResources.getBundleDirectory(bundle, basePath, welcomeFile)
+  }
+
+  def detachedIo(route: Route): Route = {
+    resourceIo.detached(route)
   }
 }
\ No newline at end of file
@@ -13,6 +13,7 @@ import org.osgi.service.component.annotations.Activate
 import org.osgi.service.component.annotations.Component
 import org.osgi.service.component.annotations.ConfigurationPolicy
 import org.osgi.service.component.annotations.Deactivate
+import org.osgi.service.component.annotations.Modified
 import org.osgi.service.component.annotations.Reference
 
 import com.typesafe.config.Config
@@ -31,7 +32,10 @@ import akka.pattern.ask
 import akka.util.Timeout
 import spray.can.Http
 import spray.can.server.ServerSettings
+import spray.osgi.ResourceCacheStatistics
+import spray.osgi.ResourceIoStatistics
 import spray.osgi.RouteManager
+import spray.osgi.RouteMetrics
 
 @Component(
   configurationPid = "io.spray.can",
@@ -45,23 +49,65 @@ class SprayServerComponent {
 
   var routeManagerReg: ServiceRegistration[RouteManager] = _
 
+  var cacheStatisticsReg: ServiceRegistration[ResourceCacheStatistics] = _
+
+  var metricsReg: ServiceRegistration[RouteMetrics] = _
+
+  var ioStatisticsReg: ServiceRegistration[ResourceIoStatistics] = _
+
   var resourcesTracker: BundleResourcesTracker = _
 
   @Activate
   def activate(ctx: BundleContext, properties: java.util.Map[String, _]): Unit = {
-    val classloader = BundleDelegatingClassLoader(ctx)
-    val config = ConfigRecovery.fromProperties(properties).withFallback(ConfigFactory.load(classloader)).resolve
+    val config = loadConfig(ctx, properties)
     sprayServer = new SprayServer(config, actorSystem, ctx)
     routeManagerReg = ctx.registerService(classOf[RouteManager], sprayServer, null)
+    cacheStatisticsReg = ctx.registerService(classOf[ResourceCacheStatistics], sprayServer.resourceCache, null)
+    metricsReg = ctx.registerService(classOf[RouteMetrics], sprayServer.metrics, null)
+    ioStatisticsReg = ctx.registerService(classOf[ResourceIoStatistics], sprayServer.resourceIo, null)
     resourcesTracker = new BundleResourcesTracker(ctx, sprayServer, config.getConfig("spray.can.resources"))
     resourcesTracker.open()
   }
 
+  /**
+   * Applies the modified configuration to the running server. The server is restarted only when
+   * the interface or port of the listener change. Bundles are rescanned only when the resource
+   * directory or welcome file change.
+   */
+  @Modified
+  def modified(ctx: BundleContext, properties: java.util.Map[String, _]): Unit = {
+    val config = loadConfig(ctx, properties)
+    if (sprayServer.reconfigure(config)) {
+      val resourcesConfig = config.getConfig("spray.can.resources")
+      if (resourcesConfig.getString("directory") != resourcesTracker.basePath ||
+        resourcesConfig.getString("welcome-file") != resourcesTracker.welcomeFile) {
+        resourcesTracker.close()
+        resourcesTracker = new BundleResourcesTracker(ctx, sprayServer, resourcesConfig)
+        resourcesTracker.open()
+      }
+    } else {
+      deactivate
+      activate(ctx, properties)
+    }
+  }
+
+  private def loadConfig(ctx: BundleContext, properties: java.util.Map[String, _]): Config = {
+    val classloader = BundleDelegatingClassLoader(ctx)
+    ConfigRecovery.fromProperties(properties).withFallback(ConfigFactory.load(classloader)).resolve
+  }
+
+  /**
+   * Components using the route manager enqueue their cleanup on its scan queue while they are
+   * deactivated, so the services are unregistered before the server and its queue are shut down.
+   */
   @Deactivate
   def deactivate: Unit = {
-    sprayServer.shutdown()
     routeManagerReg.unregister()
+    cacheStatisticsReg.unregister()
+    metricsReg.unregister()
+    ioStatisticsReg.unregister()
     resourcesTracker.close()
+    sprayServer.shutdown()
   }
 
 }
\ No newline at end of file
@@ -1,14 +1,36 @@
 package spray.osgi.impl
 
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.net.URI
+import java.net.URL
+import java.nio.file.Paths
+import java.util.zip.GZIPOutputStream
+
+import scala.util.Try
+
 import org.osgi.framework.Bundle
 import org.parboiled.common.FileUtils
 
+import com.typesafe.config.Config
+
 import akka.actor.ActorRefFactory
 import spray.http.ContentType
 import spray.http.ContentTypes.NoContentType
 import spray.http.DateTime
+import spray.http.ByteRange
+import spray.http.ContentRange
 import spray.http.EntityTag
+import spray.http.HttpData
+import spray.http.HttpEncodings
+import spray.http.HttpHeaders.`Content-Encoding`
+import spray.http.HttpHeaders.`Content-Range`
+import spray.http.HttpHeaders.RawHeader
+import spray.http.HttpHeaders.Range
+import spray.http.HttpRequest
+import spray.http.HttpResponse
 import spray.http.MediaTypes
+import spray.http.StatusCodes
 import spray.httpx.marshalling.BasicMarshallers
 import spray.httpx.marshalling.MultipartMarshallers.multipartByterangesMarshaller
 import spray.httpx.marshalling.ToResponseMarshallable.isMarshallable
@@ -17,103 +39,431 @@ import spray.routing.Directive0
 import spray.routing.Directives.autoChunk
 import spray.routing.Directives.complete
 import spray.routing.Directives.conditional
-import spray.routing.Directives.detach
 import spray.routing.Directives.get
-import spray.routing.Directives.path
-import spray.routing.Directives.pathPrefix
-import spray.routing.Directives.reject
+import spray.routing.Directives.respondWithHeader
 import spray.routing.Directives.withRangeSupport
-import spray.routing.PathMatcher.segmentStringToPathMatcher
+import spray.routing.RequestContext
 import spray.routing.Route
-import spray.routing.RouteConcatenation.pimpRouteWithConcatenation
 import spray.routing.RoutingSettings
 import spray.routing.directives.BasicDirectives
 import spray.routing.directives.ChunkSizeMagnet.fromThresholdAndChunkSize
-import spray.routing.directives.DetachMagnet.fromUnit
 import spray.routing.directives.RangeDirectives.WithRangeSupportMagnet.fromSettings
 
-object StaticResourcesDirective {
+import ResourceCache.Resource
+
+/**
+ * Spray routes serving static resources from bundles.
+ *
+ * @param cache in-memory cache of resource contents.
+ * @param io thread pool performing resource I/O.
+ * @param gzip settings of compressed resource variants.
+ * @param streaming settings of streamed delivery of large resources.
+ * @param streamers factory of the actors streaming large resources. Streamers are created from
+ * detached routes, so this must not be an actor's context.
+ */
+class StaticResourcesDirective(cache: ResourceCache, io: ResourceIoExecutor, initialGzip: StaticResourcesDirective.GzipSettings,
+  initialStreaming: ResourceStreamer.Settings, streamers: ActorRefFactory) {
+  import StaticResourcesDirective._
+
+  @volatile private var gzip = initialGzip
+
+  @volatile private var streaming = initialStreaming
+
+  /** Compressed variants of resources, produced once per resource. */
+  private val gzipCache = new ResourceCache(initialGzip.cache)
+
+  /**
+   * Applies new compression and streaming settings to the requests received from now on.
+   */
+  def reconfigure(gzip: GzipSettings, streaming: ResourceStreamer.Settings): Unit = {
+    gzipCache.reconfigure(gzip.cache)
+    this.gzip = gzip
+    this.streaming = streaming
+  }
+
+  /**
+   * Removes cached contents and compressed variants of the resources of the given bundle.
+   */
+  def invalidate(bundle: Bundle): Unit = {
+    cache.invalidate(bundle)
+    gzipCache.invalidate(bundle)
+  }
 
   private def autoChunked(implicit settings: RoutingSettings, refFactory: ActorRefFactory): Directive0 =
     autoChunk((settings.fileChunkingThresholdSize, settings.fileChunkingChunkSize))
 
-  private def conditionalFor(length: Long, lastModified: Long)(implicit settings: RoutingSettings): Directive0 =
+  private def conditionalFor(tag: String, lastModified: Long)(implicit settings: RoutingSettings): Directive0 =
     if (settings.fileGetConditional) {
-      val tag = java.lang.Long.toHexString(lastModified ^ java.lang.Long.reverse(length))
       val lastModifiedDateTime = DateTime(math.min(lastModified, System.currentTimeMillis))
       conditional(EntityTag(tag), lastModifiedDateTime)
     } else BasicDirectives.noop
 
-  private val Extension = ".*\\.(.*)$".r
-
-  private def contentType(path: String): ContentType =
-    path match {
-      case Extension(ext) ⇒ MediaTypes.forExtension(ext) map (ContentType(_)) getOrElse (NoContentType)
-      case _ ⇒ NoContentType
-    }
-
   /**
    * Completes GET requests with the content of the given resource. The actual I/O operation is
-   * running detached in a `Future`, so it doesn't block the current thread (but potentially
-   * some other thread !).
+   * running on the [[ResourceIoExecutor]] pool, so it doesn't block the current thread nor the
+   * other threads of the dispatcher. When the pool is saturated, the request is completed with
+   * `503 Service Unavailable`. Resources found in the cache are served on the current thread.
    * If the file cannot be found or read the Route rejects the request.
+   *
+   * If the resource cache is enabled, contents of the resources eligible for caching are kept
+   * in memory until the bundle is modified or stopped.
+   *
+   * Resources of compressible media types are served gzip compressed to the clients that accept
+   * it. A `.gz` sibling of the resource shipped in the bundle is used when present, otherwise
+   * the resource is compressed on first request and the compressed variant is cached.
+   *
+   * Resources of bundles installed from a directory are served directly from the file system.
+   * Other resources larger than the streaming threshold are streamed in chunks, rather than
+   * loaded into memory in whole.
+   *
+   * Metadata of the resource is computed on first request. The entity tag of the resource is
+   * derived from its content, so it is stable across bundle rebuilds.
    */
   def getBundleResource(bundle: Bundle, resourceName: String)(implicit settings: RoutingSettings, refFactory: ActorRefFactory): Route = {
+    val manifest = new ResourceManifest.Entries(bundle)
     get {
-      detach() {
-        bundle.getEntry(resourceName) match {
-          case null ⇒ reject
-          case url ⇒
-            val (length, lastModified) = {
-              val conn = url.openConnection()
-              try {
-                conn.setUseCaches(false) // otherwise the JDK will keep the JAR file open when we close!
-                val len = conn.getContentLength
-                val lm = conn.getLastModified
-                len → lm
-              } finally { conn.getInputStream.close() }
-            }
-            implicit val bufferMarshaller = BasicMarshallers.byteArrayMarshaller(contentType(resourceName))
-            autoChunked.apply { // TODO: add implicit RoutingSettings to method and use here
-              conditionalFor(length, lastModified).apply {
-                withRangeSupport() {
-                  complete {
-                    // readAllBytes closes the InputStream when done, which ends up closing the JAR file
-                    // if caching has been disabled on the connection
-                    val is = url.openStream()
-                    try { FileUtils.readAllBytes(is) }
-                    finally { is.close() }
-                  }
-                }
-              }
+      resource(bundle, resourceName, manifest)
+    }
+  }
+
+  /**
+   * Serves the given resources, matching the request path to the resource paths relative to
+   * the given base path.
+   */
+  def getBundleResources(bundle: Bundle, paths: Seq[String], resBasePath: String)(implicit settings: RoutingSettings, refFactory: ActorRefFactory): Route =
+    indexRoute(BundleResourceIndex.paths(bundle, resBasePath, paths))
+
+  /**
+   * Serves all resources in the given directory of the bundle, matching the request path to the
+   * resource paths relative to the directory. Requests for a directory are served the welcome
+   * file in that directory, if any.
+   *
+   * The directory is scanned on first request.
+   */
+  def getBundleDirectory(bundle: Bundle, basePath: String, welcomeFile: Option[String])(implicit settings: RoutingSettings, refFactory: ActorRefFactory): Route =
+    indexRoute(BundleResourceIndex.directory(bundle, basePath, welcomeFile))
+
+  /**
+   * Resolves the request path with the index on the calling thread, so that requests for paths
+   * the bundle does not provide are rejected right away. Only the requests for resources are
+   * served on the I/O pool, except the first request, which scans the bundle to build the index.
+   */
+  private def indexRoute(index: BundleResourceIndex)(implicit settings: RoutingSettings, refFactory: ActorRefFactory): Route =
+    get { ctx ⇒
+      if (index.isBuilt)
+        index.lookup(ctx.unmatchedPath) match {
+          case Some(resourceName) ⇒ resource(index.bundle, resourceName, index.manifest).apply(ctx)
+          case None ⇒ ctx.reject()
+        }
+      else
+        io.detached { ctx ⇒
+          index.lookup(ctx.unmatchedPath) match {
+            case Some(resourceName) ⇒ serve(index.bundle, resourceName, index.manifest(resourceName)).apply(ctx)
+            case None ⇒ ctx.reject()
+          }
+        }(ctx)
+    }
+
+  /**
+   * Serves the given resource on the calling thread when it is cached, and its metadata are
+   * known, otherwise on the I/O pool.
+   */
+  private def resource(bundle: Bundle, resourceName: String, manifest: ResourceManifest.Entries)(implicit settings: RoutingSettings, refFactory: ActorRefFactory): Route =
+    ctx ⇒ manifest.computed(resourceName).flatMap(cached(bundle, resourceName, _, ctx.request)) match {
+      case Some(route) ⇒ route(ctx)
+      case None ⇒ io.detached { ctx ⇒ serve(bundle, resourceName, manifest(resourceName)).apply(ctx) }(ctx)
+    }
+
+  /**
+   * Returns a route serving the resource from the cache, in the variant `serve` would choose for
+   * the request, or `None` if that variant is not cached. Performs no I/O.
+   */
+  private def cached(bundle: Bundle, resourceName: String, entry: Option[ResourceManifest.Entry], request: HttpRequest)(implicit settings: RoutingSettings, refFactory: ActorRefFactory): Option[Route] =
+    if (gzip.enabled && isCompressible(resourceName)) {
+      val compressed = acceptsGzip(request)
+      val variant =
+        if (compressed) gzipCache.peek(bundle, resourceName).map(compressedResource(resourceName, entry, _))
+        else None
+      // a compressed variant is never produced for resources below the minimum size
+      val identity =
+        if (!compressed || entry.exists(_.length < gzip.minSize)) cachedIdentity(bundle, resourceName, entry)
+        else None
+      variant.orElse(identity).map(route ⇒ respondWithHeader(VaryAcceptEncoding)(route))
+    } else cachedIdentity(bundle, resourceName, entry)
+
+  private def cachedIdentity(bundle: Bundle, resourceName: String, entry: Option[ResourceManifest.Entry])(implicit settings: RoutingSettings, refFactory: ActorRefFactory): Option[Route] =
+    entry.filter(e ⇒ cache.accepts(e.length)).flatMap(_ ⇒ cache.peek(bundle, resourceName)).map(inMemoryResource(resourceName, entry, _))
+
+  /**
+   * Serves the given resource. When the manifest entry is missing, metadata of the resource is
+   * read from the bundle entry on each request. Performs blocking I/O, so it must be run on the
+   * I/O pool.
+   */
+  private def serve(bundle: Bundle, resourceName: String, entry: Option[ResourceManifest.Entry])(implicit settings: RoutingSettings, refFactory: ActorRefFactory): Route =
+    ctx ⇒ bundle.getEntry(resourceName) match {
+      case null ⇒ ctx.reject()
+      case url if gzip.enabled && isCompressible(resourceName) ⇒
+        respondWithHeader(VaryAcceptEncoding) {
+          val variant = if (acceptsGzip(ctx.request)) gzipVariant(bundle, resourceName, url) else None
+          variant match {
+            case Some(resource) ⇒
+              compressedResource(resourceName, entry, resource)
+            case None ⇒
+              identityResource(bundle, resourceName, url, entry)
+          }
+        }(ctx)
+      case url ⇒
+        identityResource(bundle, resourceName, url, entry).apply(ctx)
+    }
+
+  private def identityResource(bundle: Bundle, resourceName: String, url: URL, entry: Option[ResourceManifest.Entry])(implicit settings: RoutingSettings, refFactory: ActorRefFactory): Route = {
+    val (length, lastModified) = entry.map(e ⇒ e.length → e.lastModified).getOrElse {
+      val conn = url.openConnection()
+      try {
+        conn.setUseCaches(false) // otherwise the JDK will keep the JAR file open when we close!
+        val len = conn.getContentLength.toLong
+        val lm = conn.getLastModified
+        len → lm
+      } finally { conn.getInputStream.close() }
+    }
+    cachedResource(bundle, resourceName, url, length) match {
+      case Some(resource) ⇒
+        inMemoryResource(resourceName, entry, resource)
+      case None ⇒
+        val tag = entryTag(entry, length, lastModified)
+        val ct = entryContentType(entry, resourceName)
+        entryFile(bundle, resourceName, url) match {
+          case Some(file) ⇒
+            respond(ct, tag, lastModified)(HttpData(file))
+          case None if length > streaming.threshold ⇒
+            streamed(url, ct, length, tag, lastModified)
+          case None ⇒
+            respond(ct, tag, lastModified) {
+              // readAllBytes closes the InputStream when done, which ends up closing the JAR file
+              // if caching has been disabled on the connection
+              val is = url.openStream()
+              try { HttpData(FileUtils.readAllBytes(is)) }
+              finally { is.close() }
             }
         }
+    }
+  }
+
+  private def inMemoryResource(resourceName: String, entry: Option[ResourceManifest.Entry], resource: Resource)(implicit settings: RoutingSettings, refFactory: ActorRefFactory): Route = {
+    val tag = entryTag(entry, resource.length, resource.lastModified)
+    respond(entryContentType(entry, resourceName), tag, resource.lastModified)(HttpData(resource.bytes))
+  }
+
+  private def compressedResource(resourceName: String, entry: Option[ResourceManifest.Entry], resource: Resource)(implicit settings: RoutingSettings, refFactory: ActorRefFactory): Route = {
+    val tag = entryTag(entry, resource.length, resource.lastModified) + GzipTagSuffix
+    respondWithHeader(`Content-Encoding`(HttpEncodings.gzip)) {
+      respond(entryContentType(entry, resourceName), tag, resource.lastModified)(HttpData(resource.bytes))
+    }
+  }
+
+  /**
+   * Returns the file backing the given entry of a bundle installed from a directory.
+   */
+  private def entryFile(bundle: Bundle, resourceName: String, url: URL): Option[File] =
+    if (url.getProtocol == "file")
+      Some(new File(url.toURI))
+    else explodedDirectory(bundle.getLocation).map(new File(_, resourceName)).filter(_.isFile)
+
+  /**
+   * Streams the resource with a chunked response. A request for a single byte range is served by
+   * skipping to the start of the range, requests for multiple ranges are served the whole
+   * resource.
+   */
+  private def streamed(url: URL, contentType: ContentType, length: Long, tag: String, lastModified: Long)(implicit settings: RoutingSettings): Route =
+    conditionalFor(tag, lastModified).apply { ctx ⇒
+      ctx.request.header[Range].map(_.ranges).getOrElse(Nil) match {
+        case Seq(range) ⇒ slice(range, length) match {
+          case Some((first, last)) ⇒
+            stream(ctx, url, contentType, first, last - first + 1,
+              HttpResponse(StatusCodes.PartialContent, headers = `Content-Range`(ContentRange(first, last, length)) :: Nil))
+          case None ⇒
+            ctx.complete(HttpResponse(StatusCodes.RequestedRangeNotSatisfiable,
+              headers = `Content-Range`(ContentRange.Unsatisfiable(length)) :: Nil))
+        }
+        case _ ⇒
+          stream(ctx, url, contentType, 0, length, HttpResponse())
       }
     }
+
+  private def stream(ctx: RequestContext, url: URL, contentType: ContentType, offset: Long, length: Long, response: HttpResponse): Unit = {
+    val conn = url.openConnection()
+    conn.setUseCaches(false)
+    val is = conn.getInputStream
+    try {
+      ResourceStreamer.skipFully(is, offset)
+    } catch {
+      case e: Exception ⇒
+        is.close()
+        throw e
+    }
+    streamers.actorOf(ResourceStreamer.props(ctx.responder, response, contentType, is, length, streaming, io.executionContext))
   }
 
-  def getBundleResources(bundle: Bundle, paths: Seq[String], resBasePath: String)(implicit settings: RoutingSettings, refFactory: ActorRefFactory): Route = {
-
-    def buildRoute(pathSegments: Seq[Seq[String]], basePath: String): Route = {
-      // group paths by leading segments
-      val groupedPaths = pathSegments.groupBy(_.head).toSeq
-      groupedPaths.map {
-        // only one path starting with given segments
-        case (_, Seq(p)) ⇒
-          val uniquePath = p.mkString("/")
-          path(uniquePath).apply {
-            getBundleResource(bundle, resBasePath + basePath + "/" + uniquePath)
-          }
-        // multiple paths starting with given segments
-        case (segment, paths) ⇒
-          pathPrefix(segment).apply {
-            // strip leading segment from paths
-            val nestedPaths = paths.map(_.tail).filterNot(_.isEmpty)
-            buildRoute(nestedPaths, basePath + "/" + segment)
+  /**
+   * Returns the resource from the cache, loading it if it is eligible for caching. Returns `None`
+   * without looking into the cache when the cache is disabled or the resource is too large to be
+   * cached.
+   *
+   * @param length length of the resource, known from its manifest entry or bundle entry.
+   */
+  private def cachedResource(bundle: Bundle, resourceName: String, url: URL, length: Long): Option[Resource] =
+    if (!cache.accepts(length)) None
+    else cache.get(bundle, resourceName) orElse {
+      val revision = bundle.getLastModified
+      val conn = url.openConnection()
+      conn.setUseCaches(false)
+      val is = conn.getInputStream
+      try {
+        val resource = Resource(FileUtils.readAllBytes(is), conn.getLastModified)
+        cache.put(bundle, revision, resourceName, resource)
+        Some(resource)
+      } finally { is.close() }
+    }
+
+  /**
+   * Returns the gzip compressed variant of the resource. A `.gz` sibling shipped in the bundle
+   * takes precedence. Otherwise the resource is compressed, provided that it is not smaller than
+   * the configured minimum and the compressed variant can be cached, so that the compression
+   * is not repeated on every request.
+   */
+  private def gzipVariant(bundle: Bundle, resourceName: String, url: URL): Option[Resource] =
+    gzipCache.get(bundle, resourceName) orElse {
+      val revision = bundle.getLastModified
+      bundle.getEntry(resourceName + GzipExtension) match {
+        case null ⇒
+          val conn = url.openConnection()
+          conn.setUseCaches(false)
+          val is = conn.getInputStream
+          try {
+            val length = conn.getContentLength
+            if (length >= gzip.minSize && gzipCache.accepts(length)) {
+              val resource = Resource(compress(FileUtils.readAllBytes(is)), conn.getLastModified)
+              gzipCache.put(bundle, revision, resourceName, resource)
+              Some(resource)
+            } else None
+          } finally { is.close() }
+        case gzUrl ⇒
+          val conn = gzUrl.openConnection()
+          conn.setUseCaches(false)
+          val is = conn.getInputStream
+          try {
+            val resource = Resource(FileUtils.readAllBytes(is), conn.getLastModified)
+            gzipCache.put(bundle, revision, resourceName, resource)
+            Some(resource)
+          } finally { is.close() }
+      }
+    }
+
+  private def respond(contentType: ContentType, tag: String, lastModified: Long)(content: ⇒ HttpData)(implicit settings: RoutingSettings, refFactory: ActorRefFactory): Route = {
+    implicit val dataMarshaller = BasicMarshallers.httpDataMarshaller(contentType)
+    autoChunked.apply { // TODO: add implicit RoutingSettings to method and use here
+      conditionalFor(tag, lastModified).apply {
+        withRangeSupport() {
+          complete {
+            content
           }
-      }.reduceLeft(_ ~ _)
+        }
+      }
     }
+  }
+}
+
+object StaticResourcesDirective {
+
+  private val Extension = ".*\\.(.*)$".r
+
+  private val GzipExtension = ".gz"
+
+  /** Location prefix of a bundle installed from a directory, without copying it to the bundle cache. */
+  private val ExplodedPrefix = "reference:file:"
+
+  /** Appended to the entity tag of compressed variants, to keep it distinct from the original. */
+  private val GzipTagSuffix = "-gz"
+
+  private val VaryAcceptEncoding = RawHeader("Vary", "Accept-Encoding")
 
-    buildRoute(paths.map(_.split("/").toSeq), "")
+  /**
+   * @param enabled whether compressed variants are served.
+   * @param minSize resources smaller than this are never compressed by the server.
+   * @param cache settings of the cache of compressed variants.
+   */
+  case class GzipSettings(enabled: Boolean, minSize: Long, cache: ResourceCache.Settings)
+
+  object GzipSettings {
+
+    def fromSubConfig(c: Config) = apply(
+      c getBoolean "enabled",
+      c getBytes "min-size",
+      ResourceCache.Settings.fromSubConfig(c getConfig "cache"))
   }
+
+  /**
+   * Returns the directory of a bundle installed from a directory, given its location. The path in
+   * the location may be URI encoded, and relative paths are resolved against the working directory
+   * of the framework.
+   */
+  private def explodedDirectory(location: String): Option[File] =
+    if (!location.startsWith(ExplodedPrefix)) None
+    else {
+      val path = location.substring(ExplodedPrefix.length)
+      // paths containing characters that are not allowed in URIs are taken literally
+      val decoded = Try(new URI(path)).toOption.filter(_.getScheme == null).flatMap(u ⇒ Option(u.getPath)).getOrElse(path)
+      Try(Paths.get(System.getProperty("user.dir")).resolve(decoded).toFile).toOption
+    }
+
+  /**
+   * Entity tag of a resource, the content based tag from the manifest when available, or one
+   * derived from the length and modification time of the resource.
+   */
+  private def entryTag(entry: Option[ResourceManifest.Entry], length: Long, lastModified: Long): String =
+    entry.map(_.etag).getOrElse(java.lang.Long.toHexString(lastModified ^ java.lang.Long.reverse(length)))
+
+  private def entryContentType(entry: Option[ResourceManifest.Entry], resourceName: String): ContentType =
+    entry.map(_.contentType).getOrElse(contentType(resourceName))
+
+  private def isCompressible(path: String): Boolean =
+    contentType(path) match {
+      case NoContentType ⇒ false
+      case ct ⇒ ct.mediaType.compressible
+    }
+
+  /**
+   * Checks if the request explicitly accepts gzip. A missing `Accept-Encoding` header formally
+   * permits any encoding, but clients that do not send it rarely expect compressed content.
+   */
+  private def acceptsGzip(request: HttpRequest): Boolean = {
+    val ranges = request.acceptedEncodingRanges
+    ranges.nonEmpty && request.isEncodingAccepted(HttpEncodings.gzip, ranges)
+  }
+
+  /**
+   * Returns the first and last position of the byte range within a resource of given length, or
+   * `None` if the range is not satisfiable.
+   */
+  private def slice(range: ByteRange, length: Long): Option[(Long, Long)] =
+    range match {
+      case ByteRange.Slice(first, last) if first < length ⇒ Some((first, math.min(last, length - 1)))
+      case ByteRange.FromOffset(offset) if offset < length ⇒ Some((offset, length - 1))
+      case ByteRange.Suffix(suffix) if suffix > 0 && length > 0 ⇒ Some((math.max(length - suffix, 0), length - 1))
+      case _ ⇒ None
+    }
+
+  private def compress(bytes: Array[Byte]): Array[Byte] = {
+    val buffer = new ByteArrayOutputStream(bytes.length / 2)
+    val os = new GZIPOutputStream(buffer)
+    try { os.write(bytes) }
+    finally { os.close() }
+    buffer.toByteArray
+  }
+
+  private[impl] def contentType(path: String): ContentType =
+    path match {
+      case Extension(ext) ⇒ MediaTypes.forExtension(ext) map (ContentType(_)) getOrElse (NoContentType)
+      case _ ⇒ NoContentType
+    }
 }
\ No newline at end of file
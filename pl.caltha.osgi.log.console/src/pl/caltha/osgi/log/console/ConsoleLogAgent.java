@@ -1,16 +1,11 @@
 package pl.caltha.osgi.log.console;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
-import java.time.Instant;
-import java.time.format.DateTimeFormatter;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Enumeration;
-import java.util.function.Consumer;
+import java.util.List;
 
-import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
-import org.osgi.framework.Constants;
-import org.osgi.framework.ServiceReference;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Deactivate;
@@ -32,7 +27,20 @@ import org.osgi.service.log.LogService;
  * The component uses an internal bounded buffer that is used during startup, to
  * process messages accumulated by LogService, and for bursts when messages
  * arrive faster than they can be printed to the console. Capacity of the buffer
- * can be controlled with {@value #BUFFER_PRPERTY} framework property.
+ * can be controlled with {@value #BUFFER_PRPERTY} framework property. Logging
+ * threads never wait for the console: when the buffer is full, arriving
+ * messages are dropped, and the number of dropped messages is printed once the
+ * buffer drains.
+ * </p>
+ *
+ * <p>
+ * Entries are printed as text, or as JSON objects, one per line, when
+ * {@value #FORMAT_PROPERTY} framework property is set to {@code json}. When
+ * {@value #FILE_PROPERTY} framework property is set, entries are written to
+ * the given file instead of the console. The file is rotated when it reaches
+ * {@value #FILE_SIZE_PROPERTY} bytes (10 MiB by default, 0 disables the
+ * limit), and every {@value #FILE_PERIOD_PROPERTY} seconds if set.
+ * {@value #FILE_KEEP_PROPERTY} rotated files are kept (5 by default).
  * </p>
  */
 @Component
@@ -46,7 +54,26 @@ public class ConsoleLogAgent {
 
 	private static final int BUFFER_DEFAULT = 100;
 
-	private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ISO_INSTANT;
+	private static final String FORMAT_PROPERTY = "console.log.format";
+
+	private static final String FORMAT_DEFAULT = "text";
+
+	private static final String FILE_PROPERTY = "console.log.file";
+
+	private static final String FILE_SIZE_PROPERTY = "console.log.file.size";
+
+	private static final long FILE_SIZE_DEFAULT = 10 * 1024 * 1024;
+
+	private static final String FILE_PERIOD_PROPERTY = "console.log.file.period";
+
+	private static final long FILE_PERIOD_DEFAULT = 0;
+
+	private static final String FILE_KEEP_PROPERTY = "console.log.file.keep";
+
+	private static final int FILE_KEEP_DEFAULT = 5;
+
+	/** The batch buffer is discarded after a burst made it grow beyond this. */
+	private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
 
 	private LogReaderService logReader;
 
@@ -54,19 +81,36 @@ public class ConsoleLogAgent {
 
 	private LogListener listener;
 
+	private LogFormatter formatter;
+
+	private LogSink sink;
+
+	/** Buffer of the formatted batch, used by the worker thread only. */
+	private StringBuilder out = new StringBuilder();
+
 	@Reference
 	public void setLogReaderService(LogReaderService logReader) {
 		this.logReader = logReader;
 	}
 
 	@Activate
-	public void activate(BundleContext context) {
+	public void activate(BundleContext context) throws IOException {
 		int maxLevel = prop(context, LEVEL_PROPERTY, LEVEL_DEFAULT);
 		int bufferSize = prop(context, BUFFER_PROPERTY, BUFFER_DEFAULT);
 
-		Consumer<LogEntry> consumer = (entry) -> System.out
-				.println(format(entry));
-		buffer = new LogBuffer(bufferSize, maxLevel, consumer);
+		formatter = LogFormatter.forName(prop(context, FORMAT_PROPERTY,
+				FORMAT_DEFAULT));
+		String file = context.getProperty(FILE_PROPERTY);
+		if (file != null) {
+			sink = new FileSink(Paths.get(file), prop(context,
+					FILE_SIZE_PROPERTY, FILE_SIZE_DEFAULT), prop(context,
+					FILE_PERIOD_PROPERTY, FILE_PERIOD_DEFAULT) * 1000,
+					prop(context, FILE_KEEP_PROPERTY, FILE_KEEP_DEFAULT));
+		} else {
+			sink = new ConsoleSink();
+		}
+
+		buffer = new LogBuffer(bufferSize, maxLevel, this::write);
 
 		listener = buffer.logListener();
 		logReader.addLogListener(listener);
@@ -80,6 +124,7 @@ public class ConsoleLogAgent {
 	public void deactivate() {
 		logReader.removeLogListener(listener);
 		buffer.stop();
+		sink.close();
 	}
 
 	private static int prop(BundleContext context, String name, int defValue) {
@@ -87,83 +132,33 @@ public class ConsoleLogAgent {
 		return property != null ? Integer.parseInt(property) : defValue;
 	}
 
-	/**
-	 * Formats OSGi LogService entries as text.
-	 * 
-	 * *
-	 * <p>
-	 * Format of the message is as follows:
-	 * 
-	 * <pre>
-	 * `ISO-8601 timestamp` `bundle symbolic name` [`bundle id`]: `message`
-	 * </pre>
-	 * 
-	 * If {code LogEntry} contains a {@code ServiceReference} the format will be
-	 * as follows:
-	 * 
-	 * <pre>
-	 * `ISO-8601 timestamp` `bundle symbolic name` [`bundle id`] service `service class`: `message`
-	 * </pre>
-	 * 
-	 * If {@code LogEntry} contains a {@code Throwable} the stack trace will be
-	 * appended in the following lines.
-	 * </p>
-	 * 
-	 * @param entry
-	 * @return
-	 */
-	private static String format(LogEntry entry) {
-		StringWriter sw = new StringWriter();
-
-		switch (entry.getLevel()) {
-		case LogService.LOG_DEBUG:
-			sw.append("DEBUG");
-			break;
-		case LogService.LOG_INFO:
-			sw.append("INFO");
-			break;
-		case LogService.LOG_WARNING:
-			sw.append("WARNING");
-			break;
-		case LogService.LOG_ERROR:
-			sw.append("ERROR");
-			break;
-		}
-		sw.append(" ");
+	private static long prop(BundleContext context, String name,
+			long defValue) {
+		String property = context.getProperty(name);
+		return property != null ? Long.parseLong(property) : defValue;
+	}
 
-		TIME_FORMAT.formatTo(Instant.ofEpochMilli(entry.getTime()), sw);
-		sw.append(" ");
+	private static String prop(BundleContext context, String name,
+			String defValue) {
+		String property = context.getProperty(name);
+		return property != null ? property : defValue;
+	}
 
-		Bundle bundle = entry.getBundle();
-		if (bundle != null) {
-			sw.append(bundle.getSymbolicName()).append(" [")
-					.append(Long.toString(bundle.getBundleId())).append("]");
-		} else {
-			sw.append("<unkown bundle>");
+	/**
+	 * Formats a batch of log entries and writes them to the sink with a single
+	 * write.
+	 */
+	private void write(List<LogEntry> entries, long dropped) {
+		out.setLength(0);
+		if (dropped > 0) {
+			formatter.formatDropped(dropped, System.currentTimeMillis(), out);
 		}
-		ServiceReference ref = entry.getServiceReference();
-		if (ref != null) {
-			String[] objectClass = (String[]) ref
-					.getProperty(Constants.OBJECTCLASS);
-			sw.append(" service ");
-			for (int i = 0; i < objectClass.length; i++) {
-				sw.append(objectClass[i]);
-				if (i < objectClass.length - 1) {
-					sw.append(", ");
-				}
-			}
+		for (LogEntry entry : entries) {
+			formatter.format(entry, out);
 		}
-
-		sw.append(": ").append(entry.getMessage());
-
-		Throwable exception = entry.getException();
-		if (exception != null) {
-			PrintWriter pw = new PrintWriter(sw);
-			pw.println();
-			exception.printStackTrace(pw);
-			pw.flush();
+		sink.write(out);
+		if (out.capacity() > MAX_RETAINED_CAPACITY) {
+			out = new StringBuilder();
 		}
-
-		return sw.toString();
 	}
 }
@@ -0,0 +1,17 @@
+package pl.caltha.osgi.log.console;
+
+/**
+ * Writes log entries to the JVM's standard output.
+ */
+public class ConsoleSink implements LogSink {
+
+	@Override
+	public void write(CharSequence batch) {
+		System.out.append(batch);
+		System.out.flush();
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,195 @@
+package pl.caltha.osgi.log.console;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes log entries to a file, rotating it when it reaches a size limit or
+ * when a period of time elapses.
+ *
+ * <p>
+ * On rotation, the file is renamed by appending {@code .1} to its name, files
+ * rotated previously are renamed to the next number, and the file exceeding
+ * the number of files to keep is deleted. Each batch of entries is encoded
+ * into a reused buffer and written with a single channel write. The file is
+ * not forced to the storage device after writes.
+ * </p>
+ *
+ * <p>
+ * When the channel was closed by an interrupt of the writing thread, the file
+ * is reopened and the batch is written in whole.
+ * </p>
+ */
+public class FileSink implements LogSink {
+
+	private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+	private final Path path;
+
+	private final long maxSize;
+
+	private final long period;
+
+	private final int keep;
+
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8
+			.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+
+	private FileChannel channel;
+
+	private long size;
+
+	private long nextRotation;
+
+	/**
+	 * @param path
+	 *            the log file.
+	 * @param maxSize
+	 *            size in bytes that triggers rotation, 0 disables size based
+	 *            rotation.
+	 * @param period
+	 *            time in milliseconds after which the file is rotated, 0
+	 *            disables time based rotation.
+	 * @param keep
+	 *            number of rotated files to keep.
+	 */
+	public FileSink(Path path, long maxSize, long period, int keep)
+			throws IOException {
+		this.path = path;
+		this.maxSize = maxSize;
+		this.period = period;
+		this.keep = keep;
+		Path dir = path.toAbsolutePath().getParent();
+		if (dir != null) {
+			Files.createDirectories(dir);
+		}
+		open();
+	}
+
+	@Override
+	public void write(CharSequence batch) {
+		try {
+			encode(batch);
+			writeBuffer();
+			if ((maxSize > 0 && size >= maxSize)
+					|| (period > 0 && System.currentTimeMillis() >= nextRotation)) {
+				rotate();
+			}
+		} catch (IOException e) {
+			error("failed to write log file " + path, e);
+		}
+	}
+
+	@Override
+	public void close() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			error("failed to close log file " + path, e);
+		}
+	}
+
+	/**
+	 * Writes the contents of the buffer, reopening the file once if the
+	 * channel is found closed. The interrupt status of the thread is cleared
+	 * while writing to the reopened channel, and restored afterwards.
+	 */
+	private void writeBuffer() throws IOException {
+		boolean reopened = false;
+		boolean interrupted = false;
+		try {
+			while (buffer.hasRemaining()) {
+				try {
+					size += channel.write(buffer);
+				} catch (ClosedChannelException e) {
+					if (reopened) {
+						throw e;
+					}
+					interrupted = Thread.interrupted();
+					open();
+					reopened = true;
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Encodes the characters into the buffer, growing it when necessary.
+	 */
+	private void encode(CharSequence batch) {
+		CharBuffer chars = CharBuffer.wrap(batch);
+		int required = (int) Math.ceil(batch.length()
+				* (double) encoder.maxBytesPerChar());
+		if (buffer.capacity() < required) {
+			buffer = ByteBuffer.allocateDirect(Math.max(required,
+					buffer.capacity() * 2));
+		}
+		buffer.clear();
+		encoder.reset();
+		CoderResult result = encoder.encode(chars, buffer, true);
+		if (!result.isUnderflow()) {
+			// unpaired surrogates are replaced by the encoder, overflow
+			// cannot happen with the buffer sized for the worst case
+			throw new IllegalStateException(result.toString());
+		}
+		encoder.flush(buffer);
+		buffer.flip();
+	}
+
+	private void open() throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		size = channel.size();
+		nextRotation = System.currentTimeMillis() + period;
+	}
+
+	private void rotate() throws IOException {
+		channel.close();
+		try {
+			Files.deleteIfExists(rotated(keep));
+			for (int i = keep - 1; i >= 1; i--) {
+				Path from = rotated(i);
+				if (Files.exists(from)) {
+					Files.move(from, rotated(i + 1),
+							StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+			if (keep > 0) {
+				Files.move(path, rotated(1),
+						StandardCopyOption.REPLACE_EXISTING);
+			} else {
+				Files.delete(path);
+			}
+		} finally {
+			// keep writing, to the old file if it could not be renamed
+			open();
+		}
+	}
+
+	private Path rotated(int i) {
+		return path.resolveSibling(path.getFileName() + "." + i);
+	}
+
+	private void error(String msg, Throwable t) {
+		System.err.println(msg);
+		t.printStackTrace(System.err);
+	}
+}
@@ -0,0 +1,115 @@
+package pl.caltha.osgi.log.console;
+
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.log.LogEntry;
+
+/**
+ * Formats log entries as JSON objects, one per line, suitable for log
+ * collectors.
+ *
+ * <p>
+ * Each object has {@code level}, {@code time} (ISO-8601 timestamp) and
+ * {@code message} fields. {@code bundle} and {@code bundleId} fields are
+ * present when the entry has a bundle, {@code service} field holding an array
+ * of service classes when it has a service reference, and {@code exception}
+ * field holding the stack trace when it has a {@code Throwable}.
+ * </p>
+ */
+public class JsonLogFormatter extends LogFormatter {
+
+	private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ISO_INSTANT;
+
+	/** Holds stack traces before they are escaped. */
+	private final StringBuilder stackTrace = new StringBuilder();
+
+	@Override
+	public void format(LogEntry entry, StringBuilder out) {
+		out.append("{\"level\":\"").append(level(entry.getLevel()))
+				.append("\",\"time\":\"");
+		TIME_FORMAT.formatTo(Instant.ofEpochMilli(entry.getTime()), out);
+		out.append('"');
+
+		Bundle bundle = entry.getBundle();
+		if (bundle != null) {
+			out.append(bundle(bundle, b -> {
+				StringBuilder sb = new StringBuilder(",\"bundle\":");
+				quote(b.getSymbolicName(), sb);
+				return sb.append(",\"bundleId\":").append(b.getBundleId())
+						.toString();
+			}));
+		}
+		ServiceReference<?> ref = entry.getServiceReference();
+		if (ref != null) {
+			out.append(service(ref, objectClass -> {
+				StringBuilder sb = new StringBuilder(",\"service\":[");
+				for (int i = 0; i < objectClass.length; i++) {
+					if (i > 0) {
+						sb.append(',');
+					}
+					quote(objectClass[i], sb);
+				}
+				return sb.append(']').toString();
+			}));
+		}
+
+		out.append(",\"message\":");
+		quote(entry.getMessage(), out);
+
+		Throwable exception = entry.getException();
+		if (exception != null) {
+			stackTrace.setLength(0);
+			stackTrace(exception, stackTrace);
+			out.append(",\"exception\":");
+			quote(stackTrace, out);
+		}
+		out.append("}\n");
+	}
+
+	@Override
+	public void formatDropped(long dropped, long time, StringBuilder out) {
+		out.append("{\"level\":\"WARNING\",\"time\":\"");
+		TIME_FORMAT.formatTo(Instant.ofEpochMilli(time), out);
+		out.append("\",\"message\":\"console log: ").append(dropped)
+				.append(" entries dropped, buffer full\",\"dropped\":")
+				.append(dropped).append("}\n");
+	}
+
+	private static void quote(CharSequence s, StringBuilder out) {
+		if (s == null) {
+			out.append("null");
+			return;
+		}
+		out.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '"':
+				out.append("\\\"");
+				break;
+			case '\\':
+				out.append("\\\\");
+				break;
+			case '\n':
+				out.append("\\n");
+				break;
+			case '\r':
+				out.append("\\r");
+				break;
+			case '\t':
+				out.append("\\t");
+				break;
+			default:
+				if (c < ' ') {
+					out.append(String.format("\\u%04x", (int) c));
+				} else {
+					out.append(c);
+				}
+			}
+		}
+		out.append('"');
+	}
+}
@@ -1,9 +1,15 @@
 package pl.caltha.osgi.log.console;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Enumeration;
-import java.util.LinkedList;
-import java.util.ListIterator;
-import java.util.function.Consumer;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 
 import org.osgi.service.log.LogEntry;
 import org.osgi.service.log.LogListener;
@@ -13,76 +19,110 @@ import org.osgi.service.log.LogService;
  * A buffer for log entries coupled with a delivery worker thread that
  * guarantees processing historical and currently arriving messages in
  * chronological order.
+ *
+ * <p>
+ * The buffer is a bounded ring shared by any number of logging threads and a
+ * single worker thread. Logging threads never wait for the worker: when the
+ * buffer is full, the arriving entry is dropped and counted. The worker drains
+ * all available entries at once, sorts the batch by time, skips entries that
+ * were already delivered and hands the batch over to the consumer.
+ * </p>
  */
 public class LogBuffer {
 
-	private int capacity;
+	/** Maximum time the worker sleeps without checking the buffer. */
+	private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
 
-	private int maxLevel;
+	/** Maximum time to wait for the worker to deliver remaining entries. */
+	private static final long STOP_TIMEOUT = 1000;
 
-	private final LinkedList<LogEntry> buffer = new LinkedList<>();
+	private static final Comparator<LogEntry> BY_TIME = Comparator
+			.comparingLong(LogEntry::getTime);
+
+	private final int capacity;
+
+	private final int maxLevel;
+
+	private final AtomicReferenceArray<LogEntry> slots;
+
+	/** Number of slots claimed by the producers so far. */
+	private final AtomicLong tail = new AtomicLong();
+
+	/** Number of slots released by the worker so far. */
+	private volatile long head;
+
+	/** Set by the worker before it parks. */
+	private volatile boolean waiting;
+
+	/**
+	 * Set to stop the worker. The worker is not interrupted, because an
+	 * interrupt would close the interruptible channels the consumer writes to.
+	 */
+	private volatile boolean stopped;
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final AtomicLong duplicates = new AtomicLong();
+
+	/**
+	 * Keys of recently delivered entries, in delivery order. Accessed by the
+	 * worker thread only.
+	 */
+	private final LinkedHashSet<Key> delivered = new LinkedHashSet<>();
 
 	private final Thread thread;
 
 	/**
-	 * 
+	 *
 	 * @param capacity
 	 *            capacity of the buffer.
 	 * @param maxLevel
 	 *            maximum level of messages that will be printed to the console.
 	 *            See {@link LogService} {@code LOG_...} constants for values.
 	 * @param consumer
-	 *            consumer of log entries that will be invoked asynchronously by
-	 *            the worker thread
+	 *            consumer of log entry batches that will be invoked
+	 *            asynchronously by the worker thread
 	 */
-	public LogBuffer(int capacity, int maxLevel, Consumer<LogEntry> consumer) {
+	public LogBuffer(int capacity, int maxLevel, BatchConsumer consumer) {
 		this.capacity = capacity;
 		this.maxLevel = maxLevel;
+		this.slots = new AtomicReferenceArray<>(capacity);
 		this.thread = new Thread(() -> {
-			while (!Thread.interrupted()) {
-				synchronized (buffer) {
-					if (buffer.isEmpty()) {
-						try {
-							buffer.wait();
-						} catch (InterruptedException e) {
-							break;
-						}
-					}
-					while (!buffer.isEmpty()) {
-						consumer.accept(buffer.removeLast());
+			long reported = 0;
+			List<LogEntry> batch = new ArrayList<>(capacity);
+			while (!stopped) {
+				if (drain(batch) == 0) {
+					waiting = true;
+					if (isEmpty() && !stopped) {
+						LockSupport.parkNanos(this, PARK_NANOS);
 					}
+					waiting = false;
 				}
+				reported = deliver(batch, consumer, reported);
 			}
-			while (!buffer.isEmpty()) {
-				consumer.accept(buffer.removeLast());
-			}
-		});
+			drain(batch);
+			deliver(batch, consumer, reported);
+		}, "console-log");
+		this.thread.setDaemon(true);
 	}
 
 	/**
 	 * Returns LogListner interface of the buffer.
 	 */
 	public LogListener logListener() {
-		return (entry) -> {
-			synchronized (buffer) {
-				insert(entry);
-				buffer.notify();
-			}
-		};
+		return this::offer;
 	}
 
 	/**
 	 * Adds all messages in the enumeration to the buffer and starts the worker
 	 * thread.
-	 * 
+	 *
 	 * @param log
 	 *            an enumeration of log entries.
 	 */
 	public void start(Enumeration<LogEntry> log) {
-		synchronized (buffer) {
-			while (log.hasMoreElements()) {
-				insert(log.nextElement());
-			}
+		while (log.hasMoreElements()) {
+			offer(log.nextElement());
 		}
 		thread.start();
 	}
@@ -91,51 +131,159 @@ public class LogBuffer {
 	 * Flushes the buffer and stops the worker thread.
 	 */
 	public void stop() {
-		thread.interrupt();
+		stopped = true;
+		LockSupport.unpark(thread);
+		try {
+			thread.join(STOP_TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns the number of entries dropped because the buffer was full.
+	 */
+	public long getDropped() {
+		return dropped.get();
 	}
 
 	/**
-	 * Inserts the log entry to the buffer at the appropriate position.
-	 * 
+	 * Returns the number of entries skipped because they were delivered
+	 * already.
+	 */
+	public long getDuplicates() {
+		return duplicates.get();
+	}
+
+	/**
+	 * Appends the log entry to the buffer, or drops it if the buffer is full.
+	 *
 	 * @param entry
 	 *            a log entry
 	 */
-	private void insert(LogEntry entry) {
+	private void offer(LogEntry entry) {
 		if (entry.getLevel() > maxLevel) {
 			return;
 		}
-		ListIterator<LogEntry> i = buffer.listIterator();
-		int pos = -1;
-		while (i.hasNext()) {
-			LogEntry cur = i.next();
-			if (equals(cur, entry)) {
+		long t;
+		do {
+			t = tail.get();
+			if (t - head >= capacity) {
+				dropped.incrementAndGet();
 				return;
 			}
-			if (cur.getTime() > entry.getTime()) {
-				pos = i.nextIndex();
+		} while (!tail.compareAndSet(t, t + 1));
+		// a volatile write, so that the worker's waiting flag is read after it
+		slots.set((int) (t % capacity), entry);
+		if (waiting) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	private boolean isEmpty() {
+		return head == tail.get();
+	}
+
+	/**
+	 * Moves the entries published so far to the batch.
+	 *
+	 * @return number of entries moved.
+	 */
+	private int drain(List<LogEntry> batch) {
+		long h = head;
+		long t = tail.get();
+		int count = 0;
+		while (h < t) {
+			int i = (int) (h % capacity);
+			LogEntry entry = slots.get(i);
+			if (entry == null) {
+				// slot claimed, but the entry is not published yet
+				break;
 			}
+			slots.lazySet(i, null);
+			batch.add(entry);
+			h++;
+			count++;
 		}
-		if (pos == -1) {
-			buffer.addLast(entry);
-		} else {
-			buffer.add(pos, entry);
+		head = h;
+		return count;
+	}
+
+	/**
+	 * Sorts the batch, removes the entries that were already delivered and
+	 * passes the rest to the consumer.
+	 *
+	 * @return total number of dropped entries reported to the consumer.
+	 */
+	private long deliver(List<LogEntry> batch, BatchConsumer consumer,
+			long reported) {
+		long droppedNow = dropped.get();
+		if (batch.isEmpty() && droppedNow == reported) {
+			return reported;
+		}
+		batch.sort(BY_TIME);
+		Iterator<LogEntry> i = batch.iterator();
+		while (i.hasNext()) {
+			if (!delivered.add(new Key(i.next()))) {
+				duplicates.incrementAndGet();
+				i.remove();
+			}
 		}
-		while (buffer.size() > capacity) {
-			buffer.removeLast();
+		Iterator<Key> old = delivered.iterator();
+		for (int n = delivered.size() - capacity; n > 0; n--) {
+			old.next();
+			old.remove();
 		}
+		consumer.accept(batch, droppedNow - reported);
+		batch.clear();
+		return droppedNow;
 	}
 
 	/**
-	 * Rudimentary equivalence check for log entries used to avoid duplicates.
-	 * 
-	 * @param e1
-	 *            first log entry
-	 * @param e2
-	 *            second log entry
-	 * @return true if entries are considered equal
+	 * Consumer of the log entries delivered by the buffer.
 	 */
-	private static boolean equals(LogEntry e1, LogEntry e2) {
-		return e1.getTime() == e2.getTime()
-				&& e1.getMessage().equals(e2.getMessage());
+	@FunctionalInterface
+	public interface BatchConsumer {
+
+		/**
+		 * @param entries
+		 *            log entries, in chronological order.
+		 * @param dropped
+		 *            number of entries dropped since the previous batch,
+		 *            because the buffer was full.
+		 */
+		void accept(List<LogEntry> entries, long dropped);
+	}
+
+	/**
+	 * Rudimentary equivalence key for log entries used to avoid duplicates.
+	 */
+	private static final class Key {
+
+		private final long time;
+
+		private final String message;
+
+		Key(LogEntry entry) {
+			this.time = entry.getTime();
+			this.message = entry.getMessage();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return time == other.time
+					&& (message == null ? other.message == null : message
+							.equals(other.message));
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(time) * 31
+					+ (message == null ? 0 : message.hashCode());
+		}
 	}
 }
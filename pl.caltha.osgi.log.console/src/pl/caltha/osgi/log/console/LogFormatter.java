@@ -0,0 +1,151 @@
+package pl.caltha.osgi.log.console;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogService;
+
+/**
+ * Formats log entries, one per line, into a buffer reused for all entries of a
+ * batch.
+ *
+ * <p>
+ * Descriptions of bundles and services are computed once and cached until the
+ * bundle or service reference is discarded. Formatters are used by the worker
+ * thread of {@link LogBuffer} only, so they are not thread safe.
+ * </p>
+ */
+public abstract class LogFormatter {
+
+	private final Map<Bundle, String> bundles = new WeakHashMap<>();
+
+	private final Map<ServiceReference<?>, String> services = new WeakHashMap<>();
+
+	/**
+	 * Appends a log entry, terminated with a line separator.
+	 *
+	 * @param entry
+	 *            a log entry
+	 * @param out
+	 *            the buffer the entry is appended to.
+	 */
+	public abstract void format(LogEntry entry, StringBuilder out);
+
+	/**
+	 * Appends a notice about entries dropped because the buffer was full,
+	 * terminated with a line separator.
+	 *
+	 * @param dropped
+	 *            number of dropped entries.
+	 * @param time
+	 *            current time.
+	 * @param out
+	 *            the buffer the notice is appended to.
+	 */
+	public abstract void formatDropped(long dropped, long time,
+			StringBuilder out);
+
+	/**
+	 * Returns the formatter selected by the value of
+	 * {@code console.log.format} framework property, {@code text} or
+	 * {@code json}.
+	 */
+	public static LogFormatter forName(String name) {
+		switch (name) {
+		case "text":
+			return new TextLogFormatter();
+		case "json":
+			return new JsonLogFormatter();
+		default:
+			throw new IllegalArgumentException("unknown log format " + name);
+		}
+	}
+
+	/**
+	 * Returns the name of the log level.
+	 */
+	protected static String level(int level) {
+		switch (level) {
+		case LogService.LOG_DEBUG:
+			return "DEBUG";
+		case LogService.LOG_INFO:
+			return "INFO";
+		case LogService.LOG_WARNING:
+			return "WARNING";
+		case LogService.LOG_ERROR:
+			return "ERROR";
+		default:
+			return "";
+		}
+	}
+
+	/**
+	 * Returns the description of the bundle, computed on first use by the
+	 * given formatter.
+	 */
+	protected String bundle(Bundle bundle, Describer<Bundle> describer) {
+		String description = bundles.get(bundle);
+		if (description == null) {
+			description = describer.describe(bundle);
+			bundles.put(bundle, description);
+		}
+		return description;
+	}
+
+	/**
+	 * Returns the description of the service, computed on first use by the
+	 * given formatter from its object classes.
+	 */
+	protected String service(ServiceReference<?> ref,
+			Describer<String[]> describer) {
+		String description = services.get(ref);
+		if (description == null) {
+			description = describer.describe((String[]) ref
+					.getProperty(Constants.OBJECTCLASS));
+			services.put(ref, description);
+		}
+		return description;
+	}
+
+	/**
+	 * Appends the stack trace of the exception.
+	 */
+	protected static void stackTrace(Throwable exception, StringBuilder out) {
+		PrintWriter pw = new PrintWriter(new Writer() {
+			@Override
+			public void write(char[] cbuf, int off, int len) {
+				out.append(cbuf, off, len);
+			}
+
+			@Override
+			public void write(String str, int off, int len) {
+				out.append(str, off, off + len);
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+			}
+		});
+		exception.printStackTrace(pw);
+		pw.flush();
+	}
+
+	/**
+	 * Computes a description of an object.
+	 */
+	@FunctionalInterface
+	protected interface Describer<T> {
+
+		String describe(T object);
+	}
+}
@@ -0,0 +1,21 @@
+package pl.caltha.osgi.log.console;
+
+/**
+ * Destination of formatted log entries. Sinks are used by the worker thread of
+ * {@link LogBuffer} only, so they are not thread safe.
+ */
+public interface LogSink {
+
+	/**
+	 * Writes a batch of formatted log entries.
+	 *
+	 * @param batch
+	 *            formatted entries, each terminated with a line separator.
+	 */
+	void write(CharSequence batch);
+
+	/**
+	 * Releases resources held by the sink.
+	 */
+	void close();
+}
@@ -0,0 +1,73 @@
+package pl.caltha.osgi.log.console;
+
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.log.LogEntry;
+
+/**
+ * Formats log entries as text.
+ *
+ * <p>
+ * Format of the message is as follows:
+ *
+ * <pre>
+ * `level` `ISO-8601 timestamp` `bundle symbolic name` [`bundle id`]: `message`
+ * </pre>
+ *
+ * If {code LogEntry} contains a {@code ServiceReference} the format will be as
+ * follows:
+ *
+ * <pre>
+ * `level` `ISO-8601 timestamp` `bundle symbolic name` [`bundle id`] service `service class`: `message`
+ * </pre>
+ *
+ * If {@code LogEntry} contains a {@code Throwable} the stack trace will be
+ * appended in the following lines.
+ * </p>
+ */
+public class TextLogFormatter extends LogFormatter {
+
+	private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ISO_INSTANT;
+
+	private static final String LINE_SEPARATOR = System.lineSeparator();
+
+	@Override
+	public void format(LogEntry entry, StringBuilder out) {
+		out.append(level(entry.getLevel())).append(' ');
+		TIME_FORMAT.formatTo(Instant.ofEpochMilli(entry.getTime()), out);
+		out.append(' ');
+
+		Bundle bundle = entry.getBundle();
+		if (bundle != null) {
+			out.append(bundle(bundle,
+					b -> b.getSymbolicName() + " [" + b.getBundleId() + "]"));
+		} else {
+			out.append("<unkown bundle>");
+		}
+		ServiceReference<?> ref = entry.getServiceReference();
+		if (ref != null) {
+			out.append(service(ref,
+					objectClass -> " service " + String.join(", ", objectClass)));
+		}
+
+		out.append(": ").append(entry.getMessage());
+
+		Throwable exception = entry.getException();
+		if (exception != null) {
+			out.append(LINE_SEPARATOR);
+			stackTrace(exception, out);
+		}
+		out.append(LINE_SEPARATOR);
+	}
+
+	@Override
+	public void formatDropped(long dropped, long time, StringBuilder out) {
+		out.append("WARNING ");
+		TIME_FORMAT.formatTo(Instant.ofEpochMilli(time), out);
+		out.append(" console log: ").append(dropped)
+				.append(" entries dropped, buffer full").append(LINE_SEPARATOR);
+	}
+}
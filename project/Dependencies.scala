@@ -9,6 +9,7 @@ object Dependencies {
 	val typesafeConfig  = "com.typesafe"               %  "config"                   % "1.2.1"
 	val osgiCore        = "org.osgi"                   %  "org.osgi.core"            % osgiVersion
 	val osgiEnterprise  = "org.osgi"                   %  "org.osgi.enterprise"      % osgiVersion
+	val osgiCompendium  = "org.osgi"                   %  "org.osgi.compendium"      % osgiVersion
 	val akkaActor       = "com.typesafe.akka"          %% "akka-actor"               % akkaVersion
 	val akkaOsgi	      = "com.typesafe.akka"          %% "akka-osgi"                % akkaVersion
 	val sprayCan        = "io.spray"                   %% "spray-can"                % sprayVersion